@@ -0,0 +1,159 @@
+package com.sebsastian.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hot paths of {@link MyLift.CallService} and {@link MyLift.Elevator}.
+ * Every benchmark puts back whatever it consumed so the call state stays the same across invocations.
+ *
+ * @author sebastiangetts
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CallServiceBenchmark {
+
+    private static final int FLOORS = 256;
+    private static final int CAR = 0;
+
+    /**
+     * EMPTY：没有呼叫；SPARSE：约 1/32 的楼层有呼叫；DENSE：约一半楼层有呼叫
+     */
+    @Param({"EMPTY", "SPARSE", "DENSE"})
+    public String calls;
+
+    private MyLift.CallService callService;
+    private MyLift.FloorBitmap targets;
+    private MyLift.FloorBitmap sweepUp;
+    private MyLift.FloorBitmap sweepDown;
+    private MyLift.Elevator elevator;
+    private boolean[] initialUp;
+    private boolean[] initialDown;
+    private final int[] targetBuffer = new int[FLOORS];
+    private int[] floors;
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        callService = new MyLift.CallService(FLOORS);
+        targets = new MyLift.FloorBitmap(FLOORS);
+        sweepUp = new MyLift.FloorBitmap(FLOORS);
+        sweepUp.set(FLOORS - 1);
+        sweepDown = new MyLift.FloorBitmap(FLOORS);
+        sweepDown.set(0);
+        int every = "DENSE".equals(calls) ? 2 : 32;
+        initialUp = new boolean[FLOORS];
+        initialDown = new boolean[FLOORS];
+        if (!"EMPTY".equals(calls)) {
+            for (int f = 1; f < FLOORS - 1; f += every) {
+                initialUp[f] = callService.handlePressUp(f);
+                initialDown[f + 1] = callService.handlePressDown(f + 1);
+            }
+        }
+        MyLift.ElevatorSystem system = new MyLift.ElevatorSystem(FLOORS, 1);
+        elevator = system.getElevator(0);
+        for (int f = 1; f < FLOORS; f += every) {
+            elevator.addTargetFloor(f);
+        }
+        SplittableRandom random = new SplittableRandom(1);
+        floors = new int[1024];
+        for (int i = 0; i < floors.length; i++) {
+            floors[i] = 1 + random.nextInt(FLOORS - 2);
+        }
+    }
+
+    private int nextFloor() {
+        return floors[cursor++ & (floors.length - 1)];
+    }
+
+    /**
+     * 登记呼叫后由下面一层经过的上行电梯顺路认领
+     */
+    @Benchmark
+    public int pressUpAndServe() {
+        int floor = nextFloor();
+        callService.handlePressUp(floor);
+        int next = callService.handleNext(CAR, floor - 1, MyLift.Direction.UP, sweepUp);
+        restore(floor);
+        return next;
+    }
+
+    /**
+     * 登记呼叫后由上面一层经过的下行电梯顺路认领
+     */
+    @Benchmark
+    public int pressDownAndServe() {
+        int floor = nextFloor();
+        callService.handlePressDown(floor);
+        int next = callService.handleNext(CAR, floor + 1, MyLift.Direction.DOWN, sweepDown);
+        restore(floor);
+        return next;
+    }
+
+    /**
+     * 重复按下已亮起的按钮
+     */
+    @Benchmark
+    public boolean pressUpDuplicate() {
+        return callService.handlePressUp(1);
+    }
+
+    @Benchmark
+    public int handlePress() {
+        int floor = nextFloor();
+        int next = callService.handlePress(CAR, floor);
+        restore(next);
+        return next;
+    }
+
+    @Benchmark
+    public int handleNext() {
+        int floor = nextFloor();
+        int destination = floor < FLOORS / 2 ? FLOORS - 1 : 0;
+        targets.set(destination);
+        int next = callService.handleNext(CAR, floor, MyLift.Direction.IDLE, targets);
+        restore(next);
+        targets.clear(destination);
+        return next;
+    }
+
+    @Benchmark
+    public Set<Integer> getTargetFloors() {
+        return elevator.getTargetFloors();
+    }
+
+    @Benchmark
+    public int copyTargets() {
+        return elevator.copyTargets(targetBuffer);
+    }
+
+    /**
+     * 把该楼层的呼叫恢复成初始状态
+     */
+    private void restore(int floor) {
+        if (initialUp[floor]) {
+            callService.handlePressUp(floor);
+        }
+        if (initialDown[floor]) {
+            callService.handlePressDown(floor);
+        }
+    }
+}
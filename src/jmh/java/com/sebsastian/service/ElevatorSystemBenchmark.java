@@ -0,0 +1,90 @@
+package com.sebsastian.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full step loop of an {@link MyLift.ElevatorSystem}: one hall press, then every car goes to its next stop
+ * and idle cars receive a fresh cabin target.
+ *
+ * @author sebastiangetts
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ElevatorSystemBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int floors;
+
+    @Param({"1", "8", "64"})
+    public int cars;
+
+    private MyLift.ElevatorSystem system;
+    private SplittableRandom random;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        system = MyLift.ElevatorSystem.builder(floors, cars).policy(DispatchPolicy.Standard.ETA).build();
+        random = new SplittableRandom(1);
+    }
+
+    @Benchmark
+    public int step() {
+        MyLift.FloorControlPanel panel = system.getFloorControlPanel(random.nextInt(floors));
+        if (random.nextBoolean()) {
+            panel.pressUp();
+        } else {
+            panel.pressDown();
+        }
+        int moved = 0;
+        for (int c = 0; c < cars; c++) {
+            MyLift.Elevator elevator = system.getElevator(c);
+            elevator.goToNext();
+            if (elevator.getDirection() == MyLift.Direction.IDLE) {
+                elevator.addTargetFloor(random.nextInt(floors));
+            }
+            moved += elevator.getCurrentFloor();
+        }
+        return moved;
+    }
+
+    /**
+     * 同样的负载，改用 {@link MyLift.ElevatorSystem#step()} 统一分配后整体推进
+     */
+    @Benchmark
+    public int systemStep() {
+        MyLift.FloorControlPanel panel = system.getFloorControlPanel(random.nextInt(floors));
+        if (random.nextBoolean()) {
+            panel.pressUp();
+        } else {
+            panel.pressDown();
+        }
+        system.step();
+        int moved = 0;
+        for (int c = 0; c < cars; c++) {
+            MyLift.Elevator elevator = system.getElevator(c);
+            if (elevator.getDirection() == MyLift.Direction.IDLE) {
+                elevator.addTargetFloor(random.nextInt(floors));
+            }
+            moved += elevator.getCurrentFloor();
+        }
+        return moved;
+    }
+}
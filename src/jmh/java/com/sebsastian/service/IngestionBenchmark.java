@@ -0,0 +1,76 @@
+package com.sebsastian.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Press latency of many input threads: direct {@link MyLift.CallService} mutation versus publishing to an
+ * {@link IngestionPipeline}. Each iteration starts from a fresh system; once every button is lit the presses are
+ * duplicates, which still travel the whole pipeline.
+ *
+ * @author sebastiangetts
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class IngestionBenchmark {
+
+    private static final int FLOORS = 256;
+    private static final int CARS = 8;
+
+    @Param({"BUSY_SPIN", "BLOCKING"})
+    public String waitStrategy;
+
+    private MyLift.ElevatorSystem system;
+    private IngestionPipeline pipeline;
+
+    @State(Scope.Thread)
+    public static class Input {
+
+        private final SplittableRandom random = new SplittableRandom(Thread.currentThread().getId());
+
+        int nextFloor() {
+            return 1 + random.nextInt(FLOORS - 2);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        system = new MyLift.ElevatorSystem(FLOORS, CARS);
+        pipeline = system.startIngestion(1 << 16, IngestionPipeline.WaitStrategy.valueOf(waitStrategy));
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        pipeline.close();
+    }
+
+    @Benchmark
+    public boolean pressDirect(Input input) {
+        return system.callService().handlePressUp(input.nextFloor());
+    }
+
+    @Benchmark
+    public void publish(Input input) {
+        pipeline.publishUp(input.nextFloor());
+    }
+}
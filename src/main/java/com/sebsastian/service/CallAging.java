@@ -0,0 +1,129 @@
+package com.sebsastian.service;
+
+import java.util.Arrays;
+
+/**
+ * Registration-time ordered queue of hall calls that marks calls waiting longer than a bound as overdue.
+ * 呼叫登记时按登记时刻进入最小堆（O(log n)），到期时出堆并记入超时位图；电梯把分配给自己的超时呼叫当作 LOOK 路线上的必停站，
+ * 因此任何呼叫最多等待 maxWait 再加上所属电梯的一趟往返。
+ * 只有登记和到期时加锁，未到期时的检查只是一次 volatile 读；已被认领或重新登记的呼叫出堆时按登记时刻识别并丢弃。
+ *
+ * @author sebastiangetts
+ */
+final class CallAging {
+
+    private final long maxWaitNanos;
+
+    /**
+     * CallService 中的登记时刻，认领后为0，用于识别堆中失效的条目
+     */
+    private final MyLift.LazyLongArray upPressedAt;
+    private final MyLift.LazyLongArray downPressedAt;
+
+    private final MyLift.FloorBitmap overdueUp;
+    private final MyLift.FloorBitmap overdueDown;
+
+    // 二叉最小堆：登记时刻与 floor << 1 | up
+    private long[] times = new long[64];
+    private int[] keys = new int[64];
+    private int size;
+
+    /**
+     * 堆顶呼叫的到期时刻，堆为空时为 {@link Long#MAX_VALUE}
+     */
+    private volatile long deadline = Long.MAX_VALUE;
+
+    CallAging(int totalFloors, long maxWaitNanos, MyLift.LazyLongArray upPressedAt,
+              MyLift.LazyLongArray downPressedAt) {
+        if (maxWaitNanos <= 0) {
+            throw new IllegalArgumentException("max wait must be positive: " + maxWaitNanos);
+        }
+        this.maxWaitNanos = maxWaitNanos;
+        this.upPressedAt = upPressedAt;
+        this.downPressedAt = downPressedAt;
+        this.overdueUp = new MyLift.FloorBitmap(totalFloors);
+        this.overdueDown = new MyLift.FloorBitmap(totalFloors);
+    }
+
+    long maxWaitNanos() {
+        return maxWaitNanos;
+    }
+
+    /**
+     * 已超时、尚未被认领的呼叫
+     */
+    MyLift.FloorBitmap overdue(boolean up) {
+        return up ? overdueUp : overdueDown;
+    }
+
+    synchronized void register(int floor, boolean up, long pressedAt) {
+        // 重新登记的呼叫从头计时
+        overdue(up).clear(floor);
+        if (size == times.length) {
+            times = Arrays.copyOf(times, size * 2);
+            keys = Arrays.copyOf(keys, size * 2);
+        }
+        int key = floor << 1 | (up ? 1 : 0);
+        int i = size++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (times[parent] <= pressedAt) {
+                break;
+            }
+            times[i] = times[parent];
+            keys[i] = keys[parent];
+            i = parent;
+        }
+        times[i] = pressedAt;
+        keys[i] = key;
+        deadline = times[0] + maxWaitNanos;
+    }
+
+    void served(int floor, boolean up) {
+        overdue(up).clear(floor);
+    }
+
+    /**
+     * 把到 now 为止已超时的呼叫移入超时位图
+     */
+    void expire(long now) {
+        if (now < deadline) {
+            return;
+        }
+        synchronized (this) {
+            while (size > 0 && now >= times[0] + maxWaitNanos) {
+                long pressedAt = times[0];
+                int key = keys[0];
+                pop();
+                boolean up = (key & 1) != 0;
+                int floor = key >>> 1;
+                if ((up ? upPressedAt : downPressedAt).get(floor) == pressedAt) {
+                    overdue(up).set(floor);
+                }
+            }
+            deadline = size == 0 ? Long.MAX_VALUE : times[0] + maxWaitNanos;
+        }
+    }
+
+    private void pop() {
+        int last = --size;
+        long time = times[last];
+        int key = keys[last];
+        int i = 0;
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && times[child + 1] < times[child]) {
+                child++;
+            }
+            if (time <= times[child]) {
+                break;
+            }
+            times[i] = times[child];
+            keys[i] = keys[child];
+            i = child;
+        }
+        times[i] = time;
+        keys[i] = key;
+    }
+}
@@ -0,0 +1,186 @@
+package com.sebsastian.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author sebastiangetts
+ */
+class CallAgingTest {
+
+    private static final long MAX_WAIT = 100;
+
+    private final AtomicLong clock = new AtomicLong(1);
+
+    private MyLift.ElevatorSystem agingSystem(int cars, DispatchPolicy policy) {
+        MyLift.ElevatorSystem system = MyLift.ElevatorSystem.builder(10, cars).policy(policy).build();
+        system.enableAging(MAX_WAIT, clock::get);
+        return system;
+    }
+
+    @Test
+    void calls_shall_become_overdue_in_registration_order() {
+        MyLift.LazyLongArray up = new MyLift.LazyLongArray(10);
+        MyLift.LazyLongArray down = new MyLift.LazyLongArray(10);
+        CallAging aging = new CallAging(10, MAX_WAIT, up, down);
+        up.set(4, 30);
+        aging.register(4, true, 30);
+        down.set(2, 10);
+        aging.register(2, false, 10);
+        up.set(7, 20);
+        aging.register(7, true, 20);
+
+        aging.expire(109);
+        assertTrue(aging.overdue(false).isEmpty());
+        aging.expire(110);
+        assertTrue(aging.overdue(false).get(2));
+        assertTrue(aging.overdue(true).isEmpty());
+        aging.expire(130);
+        assertTrue(aging.overdue(true).get(7));
+        assertTrue(aging.overdue(true).get(4));
+    }
+
+    @Test
+    void served_or_repressed_calls_shall_not_become_overdue() {
+        MyLift.LazyLongArray up = new MyLift.LazyLongArray(10);
+        MyLift.LazyLongArray down = new MyLift.LazyLongArray(10);
+        CallAging aging = new CallAging(10, MAX_WAIT, up, down);
+        up.set(3, 10);
+        aging.register(3, true, 10);
+        // 被认领后在50时重新登记
+        up.set(3, 50);
+        aging.register(3, true, 50);
+
+        aging.expire(120);
+        assertFalse(aging.overdue(true).get(3));
+        aging.expire(150);
+        assertTrue(aging.overdue(true).get(3));
+
+        aging.served(3, true);
+        assertFalse(aging.overdue(true).get(3));
+        assertThrows(IllegalArgumentException.class, () -> new CallAging(10, 0, up, down));
+    }
+
+    @Test
+    void idle_car_shall_prefer_the_older_call_over_direction() {
+        MyLift.ElevatorSystem legacy = MyLift.ElevatorSystem.builder(10, 1)
+                .policy(DispatchPolicy.Standard.COLLECTIVE).build();
+        MyLift.ElevatorSystem aged = agingSystem(1, DispatchPolicy.Standard.COLLECTIVE);
+        for (MyLift.ElevatorSystem system : new MyLift.ElevatorSystem[]{legacy, aged}) {
+            system.getElevator(0).addTargetFloor(5);
+            system.step();
+            system.getFloorControlPanel(2).pressDown();
+        }
+        clock.addAndGet(50);
+        legacy.getFloorControlPanel(6).pressUp();
+        aged.getFloorControlPanel(6).pressUp();
+        legacy.step();
+        aged.step();
+
+        // 向下的呼叫虽然远两层，但已等了半个 maxWait
+        assertEquals(6, legacy.getElevator(0).getCurrentFloor());
+        assertEquals(2, aged.getElevator(0).getCurrentFloor());
+    }
+
+    @Test
+    void overdue_call_ahead_shall_delay_the_reversal() {
+        MyLift.ElevatorSystem legacy = MyLift.ElevatorSystem.builder(10, 1)
+                .policy(DispatchPolicy.Standard.COLLECTIVE).build();
+        MyLift.ElevatorSystem aged = agingSystem(1, DispatchPolicy.Standard.COLLECTIVE);
+        for (MyLift.ElevatorSystem system : new MyLift.ElevatorSystem[]{legacy, aged}) {
+            system.getElevator(0).addTargetFloor(5);
+            system.step();
+            system.getElevator(0).addTargetFloor(0);
+            system.getFloorControlPanel(7).pressUp();
+        }
+        clock.addAndGet(MAX_WAIT);
+        for (MyLift.ElevatorSystem system : new MyLift.ElevatorSystem[]{legacy, aged}) {
+            system.getFloorControlPanel(8).pressUp();
+            system.step();
+        }
+
+        // 前方没有target时本该掉头，超时的向上呼叫让电梯先上行接人
+        assertEquals(0, legacy.getElevator(0).getCurrentFloor());
+        assertTrue(legacy.getFloorControlPanel(7).isUpPressed());
+        MyLift.Elevator car = aged.getElevator(0);
+        assertEquals(7, car.getCurrentFloor());
+        assertFalse(aged.getFloorControlPanel(7).isUpPressed());
+        assertTrue(aged.getFloorControlPanel(8).isUpPressed());
+        assertTrue(car.hasTarget(0));
+        assertTrue(aged.callService().aging().overdue(true).isEmpty());
+    }
+
+    @Test
+    void overdue_opposite_call_shall_not_be_cleared_on_the_way() {
+        MyLift.ElevatorSystem system = agingSystem(1, DispatchPolicy.Standard.COLLECTIVE);
+        MyLift.Elevator car = system.getElevator(0);
+        car.addTargetFloor(6);
+        system.step();
+        car.addTargetFloor(0);
+        system.getFloorControlPanel(3).pressUp();
+        system.getFloorControlPanel(6).pressUp();
+        clock.addAndGet(MAX_WAIT);
+        system.step();
+
+        // 下行途中经过3层向上的呼叫不停，到达底层掉头后才接；当前楼层向上的呼叫也不随下行的电梯清除
+        assertEquals(0, car.getCurrentFloor());
+        assertTrue(system.getFloorControlPanel(3).isUpPressed());
+        system.step();
+        assertEquals(3, car.getCurrentFloor());
+        assertFalse(system.getFloorControlPanel(3).isUpPressed());
+        assertTrue(system.getFloorControlPanel(6).isUpPressed());
+    }
+
+    @Test
+    void overdue_call_shall_only_stop_its_assigned_car() {
+        MyLift.ElevatorSystem system = agingSystem(2, DispatchPolicy.Standard.ETA);
+        MyLift.Elevator first = system.getElevator(0);
+        MyLift.Elevator second = system.getElevator(1);
+        first.addTargetFloor(5);
+        second.addTargetFloor(4);
+        system.step();
+        first.addTargetFloor(0);
+        second.addTargetFloor(0);
+        system.getFloorControlPanel(7).pressUp();
+        clock.addAndGet(MAX_WAIT);
+        system.step();
+
+        MyLift.Elevator stopped = first.getCurrentFloor() == 7 ? first : second;
+        MyLift.Elevator passed = stopped == first ? second : first;
+        assertEquals(7, stopped.getCurrentFloor());
+        assertEquals(0, passed.getCurrentFloor());
+        assertFalse(system.getFloorControlPanel(7).isUpPressed());
+    }
+
+    @Test
+    void full_car_shall_not_stop_for_overdue_calls() {
+        MyLift.ElevatorSystem system = MyLift.ElevatorSystem.builder(10, 1).capacity(10)
+                .policy(DispatchPolicy.Standard.COLLECTIVE).build();
+        system.enableAging(MAX_WAIT, clock::get);
+        MyLift.Elevator car = system.getElevator(0);
+        car.addTargetFloor(9);
+        system.step();
+        car.addTargetFloor(0);
+        car.board(10);
+        system.getFloorControlPanel(4).pressUp();
+        clock.addAndGet(MAX_WAIT);
+        system.step();
+
+        assertEquals(0, car.getCurrentFloor());
+        assertTrue(system.getFloorControlPanel(4).isUpPressed());
+    }
+
+    @Test
+    void bounded_wait_shall_cut_the_wait_tail() {
+        Simulation.Builder workload = Simulation.builder(20, 4, Simulation.TrafficPattern.DOWN_PEAK, 1_000, 3)
+                .motion(MotionModel.standard()).capacity(13).policy(DispatchPolicy.Standard.ETA);
+        Simulation.Report unbounded = workload.build().run(3_600_000L);
+        Simulation.Report bounded = workload.maxWait(60_000).build().run(3_600_000L);
+
+        assertEquals(unbounded.passengers, bounded.delivered);
+        assertTrue(bounded.p99WaitMillis < unbounded.p99WaitMillis, bounded + " vs " + unbounded);
+    }
+}
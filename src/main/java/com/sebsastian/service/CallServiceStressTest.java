@@ -0,0 +1,141 @@
+package com.sebsastian.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Hammers a shared {@link MyLift.CallService} from many panel and car threads.
+ *
+ * @author sebastiangetts
+ */
+class CallServiceStressTest {
+
+    private static final int FLOORS = 500;
+    private static final int TOP = FLOORS - 1;
+    private static final int THREADS = 4;
+    private static final int PRESSES_PER_THREAD = 200_000;
+
+    @Test
+    void concurrent_presses_register_each_call_once() throws Exception {
+        MyLift.CallService callService = new MyLift.CallService(FLOORS);
+        AtomicIntegerArray registered = new AtomicIntegerArray(FLOORS * 2);
+
+        runConcurrently(THREADS * 2, () -> {
+            for (int f = 0; f < FLOORS; f++) {
+                if (callService.handlePressUp(f)) {
+                    registered.incrementAndGet(f * 2);
+                }
+                if (callService.handlePressDown(f)) {
+                    registered.incrementAndGet(f * 2 + 1);
+                }
+            }
+            return null;
+        });
+
+        for (int f = 0; f < FLOORS; f++) {
+            assertEquals(f < TOP ? 1 : 0, registered.get(f * 2), "up " + f);
+            assertEquals(f > 0 ? 1 : 0, registered.get(f * 2 + 1), "down " + f);
+            assertEquals(f < TOP, callService.isUpPressed(f));
+            assertEquals(f > 0, callService.isDownPressed(f));
+        }
+    }
+
+    /**
+     * 面板线程不断登记向上呼叫，电梯线程同时通过 handlePress 与 handleNext 认领；
+     * 电梯都以顶层为目标，顶层不可能有向上呼叫，因此每次返回非顶层即为一次认领。
+     */
+    @Test
+    void every_registered_call_is_claimed_by_exactly_one_car() throws Exception {
+        MyLift.CallService callService = new MyLift.CallService(FLOORS);
+        AtomicIntegerArray registered = new AtomicIntegerArray(FLOORS);
+        AtomicIntegerArray claimed = new AtomicIntegerArray(FLOORS);
+        AtomicBoolean pressing = new AtomicBoolean(true);
+        CountDownLatch panelsDone = new CountDownLatch(THREADS);
+
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            tasks.add(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < PRESSES_PER_THREAD; i++) {
+                    int floor = random.nextInt(TOP);
+                    if (callService.handlePressUp(floor)) {
+                        registered.incrementAndGet(floor);
+                    }
+                }
+                panelsDone.countDown();
+                return null;
+            });
+            tasks.add(() -> {
+                MyLift.FloorBitmap targets = new MyLift.FloorBitmap(FLOORS);
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (true) {
+                    boolean draining = !pressing.get();
+                    int fromIdle = callService.handlePress(0, TOP);
+                    if (fromIdle != TOP) {
+                        claimed.incrementAndGet(fromIdle);
+                    }
+                    targets.set(TOP);
+                    int enRoute = callService.handleNext(0, random.nextInt(TOP), MyLift.Direction.UP, targets);
+                    if (enRoute != TOP) {
+                        claimed.incrementAndGet(enRoute);
+                    }
+                    if (draining && fromIdle == TOP && !callService.hasCalls()) {
+                        return null;
+                    }
+                }
+            });
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(tasks.size());
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (Callable<Void> task : tasks) {
+                futures.add(pool.submit(task));
+            }
+            assertTrue(panelsDone.await(60, TimeUnit.SECONDS));
+            pressing.set(false);
+            for (Future<Void> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        for (int f = 0; f < FLOORS; f++) {
+            assertEquals(registered.get(f), claimed.get(f), "floor " + f);
+        }
+        assertFalse(callService.hasCalls());
+    }
+
+    private static void runConcurrently(int threads, Callable<Void> task) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(pool.submit(() -> {
+                    start.await();
+                    return task.call();
+                }));
+            }
+            start.countDown();
+            for (Future<Void> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.sebsastian.service;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.zone.ZoneRules;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Learned hall-call demand per floor and time of day, used to park idle cars where the next calls are likely.
+ * 一天按固定时长分桶，每个（时段, 楼层）格子是一个原子字：高16位为最后更新的日期，低48位为定点计数。
+ * 登记时只对一个格子做 CAS，跨天时先按半衰期衰减旧计数，因此是 O(1) 的滚动统计，不需要后台任务。
+ *
+ * @author sebastiangetts
+ */
+final class DemandModel {
+
+    static final int DEFAULT_BUCKET_MINUTES = 15;
+    static final double DEFAULT_HALF_LIFE_DAYS = 7;
+
+    private static final long DAY_MILLIS = 86_400_000L;
+    private static final int FRACTION_BITS = 16;
+    private static final long ONE = 1L << FRACTION_BITS;
+    private static final long COUNT_MASK = (1L << 48) - 1;
+
+    private final int floors;
+    private final int buckets;
+    private final long bucketMillis;
+    private final double halfLifeDays;
+    private final Clock clock;
+    private final AtomicLongArray cells;
+
+    /**
+     * 固定时区的偏移量，时区有夏令时等变化时为 {@link Long#MIN_VALUE}，按时刻查询
+     */
+    private final long fixedOffsetMillis;
+
+    DemandModel(int floors, Clock clock) {
+        this(floors, DEFAULT_BUCKET_MINUTES, DEFAULT_HALF_LIFE_DAYS, clock);
+    }
+
+    /**
+     * @param bucketMinutes 每个时段的分钟数，需能整除一天
+     * @param halfLifeDays  旧数据的权重每隔这么多天减半
+     * @param clock         决定当地的时刻，时区取自该时钟
+     */
+    DemandModel(int floors, int bucketMinutes, double halfLifeDays, Clock clock) {
+        if (bucketMinutes <= 0 || 1440 % bucketMinutes != 0 || !(halfLifeDays > 0)) {
+            throw new IllegalArgumentException("bucket minutes must divide a day and half-life must be positive");
+        }
+        this.floors = floors;
+        this.buckets = 1440 / bucketMinutes;
+        this.bucketMillis = bucketMinutes * 60_000L;
+        this.halfLifeDays = halfLifeDays;
+        this.clock = clock;
+        this.cells = new AtomicLongArray(buckets * floors);
+        ZoneRules rules = clock.getZone().getRules();
+        this.fixedOffsetMillis = rules.isFixedOffset()
+                ? rules.getOffset(Instant.EPOCH).getTotalSeconds() * 1000L : Long.MIN_VALUE;
+    }
+
+    int bucketCount() {
+        return buckets;
+    }
+
+    /**
+     * 在当前时刻记一次该楼层的呼叫
+     */
+    void record(int floor) {
+        record(floor, clock.millis());
+    }
+
+    void record(int floor, long epochMillis) {
+        if (floor < 0 || floor >= floors) {
+            return;
+        }
+        long local = localMillis(epochMillis);
+        int day = (int) Math.floorDiv(local, DAY_MILLIS);
+        int cell = bucketOf(local) * floors + floor;
+        while (true) {
+            long current = cells.get(cell);
+            long count = Math.min(decayed(current, day) + ONE, COUNT_MASK);
+            if (cells.compareAndSet(cell, current, pack(day, count))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return 当前时段（衰减到今天）某楼层的需求权重
+     */
+    double demand(int floor) {
+        return demand(floor, clock.millis());
+    }
+
+    double demand(int floor, long epochMillis) {
+        long local = localMillis(epochMillis);
+        int day = (int) Math.floorDiv(local, DAY_MILLIS);
+        return (double) decayed(cells.get(bucketOf(local) * floors + floor), day) / ONE;
+    }
+
+    /**
+     * 在当前时刻规划停靠楼层
+     */
+    int plan(int cars, int[] parkFloors) {
+        return plan(cars, parkFloors, clock.millis());
+    }
+
+    /**
+     * 为 cars 台空闲电梯选择停靠楼层：按当前及下一时段的需求分布取 (2i+1)/2n 分位点，
+     * 使每台电梯负责的需求大致相等。只扫一遍楼层，O(floors + cars)，不产生任何对象。
+     *
+     * @param parkFloors 从低到高写入停靠楼层
+     * @return 写入的个数，还没有任何需求数据时为0
+     */
+    int plan(int cars, int[] parkFloors, long epochMillis) {
+        long local = localMillis(epochMillis);
+        int day = (int) Math.floorDiv(local, DAY_MILLIS);
+        int now = bucketOf(local) * floors;
+        int next = (bucketOf(local) + 1) % buckets * floors;
+        long total = 0;
+        for (int f = 0; f < floors; f++) {
+            total += weight(now, next, f, day);
+        }
+        if (total == 0 || cars <= 0) {
+            return 0;
+        }
+        int n = Math.min(cars, parkFloors.length);
+        long cumulative = 0;
+        int i = 0;
+        for (int f = 0; f < floors && i < n; f++) {
+            cumulative += weight(now, next, f, day);
+            // 第 i 个分位点：cumulative / total >= (2i+1) / 2n
+            while (i < n && 2 * n * (double) cumulative >= (2 * i + 1) * (double) total) {
+                parkFloors[i++] = f;
+            }
+        }
+        return i;
+    }
+
+    private long weight(int now, int next, int floor, int day) {
+        return decayed(cells.get(now + floor), day) + decayed(cells.get(next + floor), day);
+    }
+
+    private int bucketOf(long localMillis) {
+        return (int) (Math.floorMod(localMillis, DAY_MILLIS) / bucketMillis);
+    }
+
+    private long localMillis(long epochMillis) {
+        if (fixedOffsetMillis != Long.MIN_VALUE) {
+            return epochMillis + fixedOffsetMillis;
+        }
+        return epochMillis + clock.getZone().getRules().getOffset(Instant.ofEpochMilli(epochMillis)).getTotalSeconds() * 1000L;
+    }
+
+    /**
+     * @return 格子里的计数衰减到 day 当天的值
+     */
+    private long decayed(long cell, int day) {
+        long count = cell & COUNT_MASK;
+        if (count == 0) {
+            return 0;
+        }
+        int days = (day - (int) (cell >>> 48)) & 0xffff;
+        return days == 0 ? count : (long) (count * Math.pow(0.5, days / halfLifeDays));
+    }
+
+    private static long pack(int day, long count) {
+        return (long) (day & 0xffff) << 48 | count;
+    }
+}
@@ -0,0 +1,121 @@
+package com.sebsastian.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author sebastiangetts
+ */
+class DemandModelTest {
+
+    private static final long DAY = 86_400_000L;
+    private static final long MORNING = Instant.parse("2026-03-02T08:05:00Z").toEpochMilli();
+    private static final long NOON = Instant.parse("2026-03-02T12:00:00Z").toEpochMilli();
+
+    private final DemandModel model = new DemandModel(20, Clock.fixed(Instant.ofEpochMilli(MORNING), ZoneOffset.UTC));
+
+    @Test
+    void presses_shall_be_counted_per_time_of_day() {
+        for (int i = 0; i < 10; i++) {
+            model.record(0, MORNING);
+        }
+
+        assertEquals(10, model.demand(0, MORNING + 60_000), 1e-9);
+        assertEquals(10, model.demand(0));
+        assertEquals(0, model.demand(0, NOON));
+        assertEquals(0, model.demand(1, MORNING));
+        assertEquals(96, model.bucketCount());
+    }
+
+    @Test
+    void old_demand_shall_decay_by_half_life() {
+        for (int i = 0; i < 8; i++) {
+            model.record(3, MORNING);
+        }
+
+        assertEquals(8, model.demand(3, MORNING), 1e-9);
+        assertEquals(8 * Math.pow(0.5, 1 / 7d), model.demand(3, MORNING + DAY), 1e-3);
+        assertEquals(4, model.demand(3, MORNING + 7 * DAY), 1e-3);
+
+        model.record(3, MORNING + 7 * DAY);
+        assertEquals(5, model.demand(3, MORNING + 7 * DAY), 1e-3);
+    }
+
+    @Test
+    void plan_shall_follow_demand_quantiles() {
+        int[] parkFloors = new int[3];
+        assertEquals(0, model.plan(2, parkFloors, MORNING));
+
+        for (int i = 0; i < 90; i++) {
+            model.record(0, MORNING);
+        }
+        for (int i = 0; i < 10; i++) {
+            model.record(9, MORNING);
+        }
+        for (int i = 0; i < 50; i++) {
+            model.record(2, NOON);
+            model.record(15, NOON);
+        }
+
+        assertEquals(2, model.plan(2, parkFloors, MORNING));
+        assertArrayEquals(new int[]{0, 0}, Arrays.copyOf(parkFloors, 2));
+        assertEquals(2, model.plan(2, parkFloors, NOON));
+        assertArrayEquals(new int[]{2, 15}, Arrays.copyOf(parkFloors, 2));
+        // 提前一个时段就开始按下一时段的需求停靠
+        assertEquals(1, model.plan(1, parkFloors, NOON - 10 * 60_000));
+        assertEquals(2, parkFloors[0]);
+    }
+
+    @Test
+    void time_of_day_shall_use_the_clock_zone() {
+        DemandModel shanghai = new DemandModel(20, Clock.fixed(Instant.ofEpochMilli(MORNING), ZoneId.of("Asia/Shanghai")));
+        shanghai.record(4, MORNING);
+
+        // UTC 08:05 是上海 16:05，同一时段；上海 08:05 则是另一个时段
+        assertEquals(1, shanghai.demand(4, MORNING + 5 * 60_000), 1e-9);
+        assertEquals(0, shanghai.demand(4, Instant.parse("2026-03-02T00:05:00Z").toEpochMilli()));
+    }
+
+    @Test
+    void idle_cars_shall_park_at_expected_demand() {
+        DemandModel noon = new DemandModel(20, Clock.fixed(Instant.ofEpochMilli(NOON), ZoneOffset.UTC));
+        for (int i = 0; i < 20; i++) {
+            noon.record(12, NOON);
+            noon.record(15, NOON);
+        }
+        MyLift.ElevatorSystem system = new MyLift.ElevatorSystem(20, 2);
+        system.enableParking(noon);
+
+        system.step(3);
+
+        assertEquals(15, system.getElevator(0).getCurrentFloor());
+        assertEquals(12, system.getElevator(1).getCurrentFloor());
+        // 已停好的电梯不再来回调整
+        system.step(3);
+        assertEquals(15, system.getElevator(0).getCurrentFloor());
+        assertEquals(12, system.getElevator(1).getCurrentFloor());
+
+        system.getFloorControlPanel(14).pressDown();
+        system.step();
+        assertEquals(14, system.getElevator(0).getCurrentFloor());
+        assertFalse(system.getFloorControlPanel(14).isDownPressed());
+    }
+
+    @Test
+    void presses_shall_feed_the_demand_model() {
+        MyLift.ElevatorSystem system = new MyLift.ElevatorSystem(20, 1);
+        system.enableParking(model);
+
+        system.getFloorControlPanel(6).pressUp();
+        system.getFloorControlPanel(6).pressDown();
+
+        assertEquals(2, model.demand(6), 1e-9);
+    }
+}
@@ -0,0 +1,233 @@
+package com.sebsastian.service;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Destination dispatch: passengers enter their destination at the hall panel and are told at once which car to take.
+ * 分配时对每台电梯估算：到达起点的路线时间、起点之前途经的停靠、为这位乘客新增的停靠（起点或目的地已在该电梯的停靠计划中则不算）
+ * 以及目的地超出该电梯当前最远停靠的那段路程。因此目的地相同或相近的乘客被编入同一台电梯，每趟的停靠数减少，上行高峰的运力随之提高。
+ * 起点作为电梯的target，电梯从起点出发时按空位依次放行在这里等它、与它同向（或电梯在此掉头）的乘客，
+ * 他们的目的地这时才成为target，保证电梯先接后送、不载着乘客先往反方向跑；
+ * 坐不下或方向不对的乘客留给该电梯下一次经过，不会产生没人下车的停靠。同一起点已预订的人数（加上起点在当前行程上时车内的乘客）
+ * 达到额定载客数后，每多一车代价增加一趟往返。未登梯的分配只在内存中，不写入日志。
+ *
+ * @author sebastiangetts
+ */
+final class DestinationDispatcher {
+
+    private final int totalFloors;
+    private final List<MyLift.Elevator> elevators;
+    private final MyLift.CallService callService;
+
+    /**
+     * 为空时按楼层数计算，否则按毫秒计算
+     */
+    private final int[] travelMillis;
+    private final int stopCost;
+
+    /**
+     * 起点已约满一车时的额外代价，相当于多跑一趟往返
+     */
+    private final int fullCost;
+
+    /**
+     * 每台电梯已分配、未登梯的乘客：origin << 32 | destination
+     */
+    private final long[][] waiting;
+    private final int[] waitingCount;
+
+    /**
+     * 与 waitingCount 相同，供电梯每次到达时无锁地判断是否有人等它
+     */
+    private final AtomicIntegerArray pending;
+
+    DestinationDispatcher(int totalFloors, List<MyLift.Elevator> elevators, MyLift.CallService callService,
+                          MotionModel motion) {
+        this.totalFloors = totalFloors;
+        this.elevators = elevators;
+        this.callService = callService;
+        if (motion == null) {
+            this.travelMillis = null;
+            this.stopCost = MyLift.GroupDispatcher.STOP_PENALTY;
+            this.fullCost = 2 * totalFloors;
+        } else {
+            // 到达起点的路线最长约为三倍楼层数，再加上延伸到目的地的一段
+            this.travelMillis = motion.travelTable(4 * totalFloors);
+            this.stopCost = (int) motion.stopMillis();
+            this.fullCost = travelMillis[2 * totalFloors];
+        }
+        this.waiting = new long[elevators.size()][];
+        this.waitingCount = new int[elevators.size()];
+        this.pending = new AtomicIntegerArray(elevators.size());
+    }
+
+    /**
+     * 登记一位乘客并分配电梯
+     *
+     * 只在同时停靠起点和目的地的电梯中选择
+     *
+     * @return 分配到的电梯编号，楼层越界、起点与目的地相同或没有电梯直达时为-1
+     */
+    int assign(int origin, int destination) {
+        if (origin < 0 || origin >= totalFloors || destination < 0 || destination >= totalFloors
+                || origin == destination || elevators.isEmpty()) {
+            callService.metrics.recordRejectedPress();
+            return -1;
+        }
+        long start = System.nanoTime();
+        boolean up = destination > origin;
+        int best;
+        synchronized (this) {
+            best = -1;
+            long bestCost = Long.MAX_VALUE;
+            for (int e = 0; e < elevators.size(); e++) {
+                MyLift.Elevator candidate = elevators.get(e);
+                if (!candidate.serves(origin) || !candidate.serves(destination)) {
+                    continue;
+                }
+                long cost = cost(e, origin, destination, up);
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    best = e;
+                }
+            }
+            if (best < 0) {
+                callService.metrics.recordRejectedPress();
+                return -1;
+            }
+            add(best, origin, destination);
+            // 电梯就停在起点时 addDestination 不加target，出发时直接放行
+            elevators.get(best).addDestination(origin);
+        }
+        callService.metrics.dispatch.record(System.nanoTime() - start);
+        callService.events.publish(up ? LiftEvents.CALL_ASSIGNED_UP : LiftEvents.CALL_ASSIGNED_DOWN, best, origin);
+        return best;
+    }
+
+    /**
+     * 分配给该电梯、尚未登梯的乘客数
+     */
+    int pending(int car) {
+        return pending.get(car);
+    }
+
+    /**
+     * 电梯从该楼层出发时，去往该方向的乘客能否登梯：电梯闲置、同向，或前方已没有target要在此掉头
+     */
+    static boolean admits(MyLift.Elevator elevator, int floor, boolean up) {
+        MyLift.Direction direction = elevator.getDirection();
+        MyLift.FloorBitmap targets = elevator.targetBitmap();
+        if (direction == MyLift.Direction.UP) {
+            return up || targets.nextSetBit(floor + 1) < 0;
+        }
+        if (direction == MyLift.Direction.DOWN) {
+            return !up || targets.previousSetBit(floor - 1) < 0;
+        }
+        return true;
+    }
+
+    /**
+     * 电梯从楼层出发前调用，此时到达该楼层的乘客已下车：在这里等它、{@link #admits 可以登梯}的乘客按分配顺序登上
+     * capacity - load 个，他们的目的地成为target；其余仍在等它的乘客的起点补回target，包括这次没能登梯的（下一次经过时再接）
+     *
+     * @return 放行登梯的人数
+     */
+    int departing(int car, int floor, MyLift.Elevator elevator) {
+        if (pending.get(car) == 0) {
+            return 0;
+        }
+        synchronized (this) {
+            int seats = elevator.getCapacity() - elevator.getLoad();
+            boolean admitsUp = admits(elevator, floor, true);
+            boolean admitsDown = admits(elevator, floor, false);
+            long[] entries = waiting[car];
+            int n = waitingCount[car];
+            int kept = 0;
+            int boarded = 0;
+            for (int i = 0; i < n; i++) {
+                long entry = entries[i];
+                int origin = (int) (entry >>> 32);
+                if (origin == floor && boarded < seats && ((int) entry > floor ? admitsUp : admitsDown)) {
+                    boarded++;
+                    elevator.addDestination((int) entry);
+                } else {
+                    if (origin != floor) {
+                        elevator.addDestination(origin);
+                    }
+                    entries[kept++] = entry;
+                }
+            }
+            waitingCount[car] = kept;
+            pending.set(car, kept);
+            return boarded;
+        }
+    }
+
+    private void add(int car, int origin, int destination) {
+        long[] entries = waiting[car];
+        int n = waitingCount[car];
+        if (entries == null) {
+            entries = waiting[car] = new long[8];
+        } else if (n == entries.length) {
+            entries = waiting[car] = Arrays.copyOf(entries, n * 2);
+        }
+        entries[n] = (long) origin << 32 | destination;
+        waitingCount[car] = n + 1;
+        pending.set(car, n + 1);
+    }
+
+    /**
+     * 这位乘客的等待与乘梯时间加上他给同车乘客增加的停靠，不产生任何对象
+     */
+    private long cost(int car, int origin, int destination, boolean up) {
+        MyLift.Elevator elevator = elevators.get(car);
+        MyLift.FloorBitmap targets = elevator.targetBitmap();
+        int current = elevator.getCurrentFloor();
+        int direction = elevator.getDirection().ordinal();
+        int highest = targets.previousSetBit(totalFloors - 1);
+        int lowest = targets.nextSetBit(0);
+        boolean destinationPlanned = targets.get(destination);
+        // 已分配乘客的目的地也在停靠计划中，并决定电梯最远要去到哪里
+        int reach = up ? Math.max(current, highest) : (lowest >= 0 ? Math.min(current, lowest) : current);
+        // 起点在当前行程的前方时车内的乘客到时还在车上
+        boolean carried = current == origin || (direction == MyLift.Direction.UP.ordinal() && up && origin > current)
+                || (direction == MyLift.Direction.DOWN.ordinal() && !up && origin < current);
+        int booked = carried ? elevator.getLoad() : 0;
+        long[] entries = waiting[car];
+        for (int i = 0; i < waitingCount[car]; i++) {
+            int planned = (int) entries[i];
+            destinationPlanned |= planned == destination;
+            reach = up ? Math.max(reach, planned) : Math.min(reach, planned);
+            if ((int) (entries[i] >>> 32) == origin) {
+                booked++;
+            }
+        }
+        int distance = MyLift.GroupDispatcher.pathFloors(current, direction, highest, lowest, origin, up)
+                + Math.max(0, up ? destination - reach : reach - destination);
+        int added = (current == origin || targets.get(origin) ? 0 : 1) + (destinationPlanned ? 0 : 1);
+        // 新增的停靠耽误这位乘客，也耽误同车已预订和车内的乘客
+        long cost = travel(distance) + (long) stopCost * stopsBefore(targets, current, direction, origin)
+                + (long) stopCost * added * (1 + booked);
+        return cost + (long) fullCost * (booked / elevator.getCapacity());
+    }
+
+    private int travel(int floors) {
+        return travelMillis == null ? floors : travelMillis[Math.min(floors, travelMillis.length - 1)];
+    }
+
+    /**
+     * 沿 LOOK 路线先于起点经过的target数，起点之后的停靠不耽误这位乘客
+     */
+    private int stopsBefore(MyLift.FloorBitmap targets, int current, int direction, int origin) {
+        int rank = MyLift.GroupDispatcher.lookRank(totalFloors, current, direction, origin);
+        int stops = 0;
+        for (int f = targets.nextSetBit(0); f >= 0; f = targets.nextSetBit(f + 1)) {
+            if (f != origin && MyLift.GroupDispatcher.lookRank(totalFloors, current, direction, f) < rank) {
+                stops++;
+            }
+        }
+        return stops;
+    }
+}
@@ -0,0 +1,128 @@
+package com.sebsastian.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author sebastiangetts
+ */
+class DestinationDispatcherTest {
+
+    @Test
+    void riders_to_same_or_nearby_floors_share_a_car() {
+        MyLift.ElevatorSystem system = new MyLift.ElevatorSystem(10, 2);
+        MyLift.FloorControlPanel lobby = system.getFloorControlPanel(0);
+
+        int first = lobby.requestDestination(9);
+        assertEquals(first, lobby.requestDestination(9));
+        assertEquals(first, lobby.requestDestination(8));
+        // 顺路多停一站耽误同车的三位乘客，不如另派一台
+        int other = lobby.requestDestination(1);
+        assertNotEquals(first, other);
+
+        MyLift.Elevator grouped = system.getElevator(first);
+        grouped.goToNext();
+        assertEquals(8, grouped.getCurrentFloor());
+        grouped.goToNext();
+        assertEquals(9, grouped.getCurrentFloor());
+        system.getElevator(other).goToNext();
+        assertEquals(1, system.getElevator(other).getCurrentFloor());
+        assertEquals(0, system.callService().destinations().pending(first));
+    }
+
+    @Test
+    void car_picks_rider_up_before_taking_them_to_destination() {
+        MyLift.ElevatorSystem system = new MyLift.ElevatorSystem(10, 1);
+        MyLift.Elevator elevator = system.getElevator(0);
+
+        assertEquals(0, system.getFloorControlPanel(5).requestDestination(2));
+        assertTrue(elevator.hasTarget(5));
+        assertFalse(elevator.hasTarget(2));
+
+        elevator.goToNext();
+        assertEquals(5, elevator.getCurrentFloor());
+        elevator.goToNext();
+        assertEquals(2, elevator.getCurrentFloor());
+        assertTrue(elevator.getTargetFloors().isEmpty());
+    }
+
+    @Test
+    void rider_waits_for_car_to_come_back_in_their_direction() {
+        MyLift.ElevatorSystem system = new MyLift.ElevatorSystem(10, 1);
+        MyLift.Elevator elevator = system.getElevator(0);
+        elevator.addTargetFloor(2);
+        elevator.addTargetFloor(8);
+        system.getFloorControlPanel(5).requestDestination(0);
+
+        int[] visited = new int[5];
+        for (int i = 0; i < visited.length; i++) {
+            elevator.goToNext();
+            visited[i] = elevator.getCurrentFloor();
+        }
+
+        assertArrayEquals(new int[]{2, 5, 8, 5, 0}, visited);
+    }
+
+    @Test
+    void booked_car_is_not_given_more_riders_than_it_can_take() {
+        MyLift.ElevatorSystem system = MyLift.ElevatorSystem.builder(10, 2).capacity(2).build();
+        MyLift.FloorControlPanel lobby = system.getFloorControlPanel(0);
+
+        int first = lobby.requestDestination(5);
+        assertEquals(first, lobby.requestDestination(5));
+        assertNotEquals(first, lobby.requestDestination(5));
+    }
+
+    @Test
+    void riders_beyond_free_seats_wait_for_the_next_visit() {
+        MyLift.ElevatorSystem system = MyLift.ElevatorSystem.builder(10, 1).capacity(2).build();
+        MyLift.FloorControlPanel lobby = system.getFloorControlPanel(0);
+        MyLift.Elevator elevator = system.getElevator(0);
+        lobby.requestDestination(5);
+        lobby.requestDestination(6);
+        lobby.requestDestination(7);
+
+        elevator.goToNext();
+
+        assertEquals(5, elevator.getCurrentFloor());
+        assertTrue(elevator.hasTarget(6));
+        assertFalse(elevator.hasTarget(7));
+        assertEquals(1, system.callService().destinations().pending(0));
+        elevator.goToNext();
+        // 离开5层时把还在大堂等它的乘客补回target
+        assertTrue(elevator.hasTarget(0));
+    }
+
+    @Test
+    void target_added_at_the_floor_the_car_just_reached_shall_count_as_arrived() {
+        MyLift.ElevatorSystem system = new MyLift.ElevatorSystem(10, 1);
+        MyLift.Elevator elevator = system.getElevator(0);
+        elevator.addTargetFloor(5);
+        elevator.addTargetFloor(8);
+        elevator.goToNext();
+        assertEquals(MyLift.Direction.UP, elevator.getDirection());
+
+        elevator.addDestination(5);
+        assertFalse(elevator.hasTarget(5));
+        // 与到达并发添加时，检查当前楼层之后电梯才到达，当前楼层仍可能成为唯一的target
+        elevator.targetBitmap().clear(8);
+        elevator.targetBitmap().set(5);
+        elevator.goToNext();
+
+        assertEquals(5, elevator.getCurrentFloor());
+        assertEquals(MyLift.Direction.IDLE, elevator.getDirection());
+        assertTrue(elevator.getTargetFloors().isEmpty());
+    }
+
+    @Test
+    void invalid_destination_shall_be_rejected() {
+        MyLift.ElevatorSystem system = new MyLift.ElevatorSystem(10, 2);
+
+        assertEquals(-1, system.getFloorControlPanel(3).requestDestination(3));
+        assertEquals(-1, system.getFloorControlPanel(0).requestDestination(10));
+        assertEquals(-1, system.getFloorControlPanel(0).requestDestination(-1));
+        assertEquals(3, system.getMetrics().getRejectedPresses());
+        assertTrue(system.getElevator(0).getTargetFloors().isEmpty());
+    }
+}
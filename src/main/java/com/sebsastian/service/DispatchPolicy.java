@@ -0,0 +1,153 @@
+package com.sebsastian.service;
+
+/**
+ * Hall-call assignment strategy of an {@link MyLift.ElevatorSystem}.
+ * 策略在系统创建时绑定到楼层数和运动模型上，得到一个 {@link Scorer}；调度器把每个呼叫交给代价最低的电梯。
+ * 打分只接收原始类型的电梯状态，调度的热路径上不产生任何对象。
+ *
+ * @author sebastiangetts
+ */
+interface DispatchPolicy {
+
+    /**
+     * 为一个系统创建打分器，可在此预先计算查找表
+     *
+     * @param motion 运动模型，可能为空
+     * @return 打分器；为空时不做群控分配，任意电梯都可以顺路认领或就近处理任意呼叫
+     */
+    Scorer bind(int totalFloors, MotionModel motion);
+
+    /**
+     * Cost of sending one car to one hall call; lower is better.
+     */
+    interface Scorer {
+
+        /**
+         * @param car       电梯编号
+         * @param current   电梯当前楼层
+         * @param direction 电梯方向，{@link MyLift.Direction#ordinal()}
+         * @param highest   最高的target，没有时为-1
+         * @param lowest    最低的target，没有时为-1
+         * @param stops     已排队的停靠数（target与已分配的呼叫）
+         * @param full      电梯是否已接近满载
+         */
+        int cost(int car, int current, int direction, int highest, int lowest, int stops, boolean full,
+                 int floor, boolean up);
+
+        /**
+         * @return 重新分配时新电梯至少要便宜这么多才换
+         */
+        int hysteresis();
+    }
+
+    /**
+     * Built-in policies.
+     */
+    enum Standard implements DispatchPolicy {
+
+        /**
+         * 不做分配：行进中的电梯顺路认领同向呼叫，闲置的电梯前往最近的呼叫，先到先得
+         */
+        COLLECTIVE {
+            @Override
+            public Scorer bind(int totalFloors, MotionModel motion) {
+                return null;
+            }
+        },
+
+        /**
+         * 分配给距离最近的电梯，不考虑方向和排队的停靠
+         */
+        NEAREST_CAR {
+            @Override
+            public Scorer bind(int totalFloors, MotionModel motion) {
+                return new Scorer() {
+                    @Override
+                    public int cost(int car, int current, int direction, int highest, int lowest, int stops,
+                                    boolean full, int floor, boolean up) {
+                        return Math.abs(floor - current);
+                    }
+
+                    @Override
+                    public int hysteresis() {
+                        return MyLift.GroupDispatcher.HYSTERESIS;
+                    }
+                };
+            }
+        },
+
+        /**
+         * 分配给沿 LOOK 路线最先经过该楼层（且方向一致）的电梯，不考虑排队的停靠
+         */
+        LOOK {
+            @Override
+            public Scorer bind(int totalFloors, MotionModel motion) {
+                return new Scorer() {
+                    @Override
+                    public int cost(int car, int current, int direction, int highest, int lowest, int stops,
+                                    boolean full, int floor, boolean up) {
+                        return MyLift.GroupDispatcher.pathFloors(current, direction, highest, lowest, floor, up);
+                    }
+
+                    @Override
+                    public int hysteresis() {
+                        return MyLift.GroupDispatcher.HYSTERESIS;
+                    }
+                };
+            }
+        },
+
+        /**
+         * 预计到达时间：LOOK 路线的运行时间加上排队停靠的代价，满载电梯另加代价。
+         * 有运动模型时按毫秒计算，否则按楼层数计算
+         */
+        ETA {
+            @Override
+            public Scorer bind(int totalFloors, MotionModel motion) {
+                if (motion == null) {
+                    return new Eta(null, MyLift.GroupDispatcher.STOP_PENALTY, MyLift.GroupDispatcher.HYSTERESIS,
+                            2 * totalFloors);
+                }
+                // 掉头的路线最长约为三倍楼层数
+                int[] travelMillis = motion.travelTable(3 * totalFloors);
+                return new Eta(travelMillis, (int) motion.stopMillis(),
+                        (int) (MyLift.GroupDispatcher.HYSTERESIS * motion.floorMillis()), travelMillis[2 * totalFloors]);
+            }
+        }
+    }
+
+    /**
+     * Scorer of {@link Standard#ETA}.
+     */
+    final class Eta implements Scorer {
+
+        private final int[] travelMillis;
+        private final int stopCost;
+        private final int hysteresis;
+
+        /**
+         * 满载电梯的额外代价，相当于先跑完两趟全程；所有电梯都满载时仍能选出一台
+         */
+        private final int fullCost;
+
+        Eta(int[] travelMillis, int stopCost, int hysteresis, int fullCost) {
+            this.travelMillis = travelMillis;
+            this.stopCost = stopCost;
+            this.hysteresis = hysteresis;
+            this.fullCost = fullCost;
+        }
+
+        @Override
+        public int cost(int car, int current, int direction, int highest, int lowest, int stops, boolean full,
+                        int floor, boolean up) {
+            int distance = MyLift.GroupDispatcher.pathFloors(current, direction, highest, lowest, floor, up);
+            return (travelMillis == null ? distance : travelMillis[distance]) + stopCost * stops
+                    + (full ? fullCost : 0);
+        }
+
+        @Override
+        public int hysteresis() {
+            return hysteresis;
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package com.sebsastian.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Append-only journal of presses, cabin targets, claimed calls and car moves in a memory-mapped file.
+ * 每条记录固定8字节：高8位类型、中间24位电梯编号、低32位楼层。写入只是一次原子加取槽位加一次内存写，
+ * 没有系统调用；后台线程按固定间隔统一 force 到磁盘（group commit）。读到全0的记录即为日志结尾。
+ * <p>
+ * 并发写入时记录顺序按取槽位的先后：登记类事件（按键、target）在置位之后取槽位，清除类事件（认领、到达）
+ * 在清位之前取槽位，因此重放最多会多恢复一个刚被处理的呼叫，而不会丢失呼叫。
+ * 所有写入方都在改完状态之后才写入记录，{@link #written()} 之前的记录因此都已反映在状态里。
+ * 每次写入先用 {@link #begin(int)} 预留额度再改动状态，日志已满时调用方在任何改动之前得知；
+ * 写满之前可以切换到新的日志段，见 {@link SystemSnapshot#rollOver}。
+ *
+ * @author sebastiangetts
+ */
+final class EventJournal implements Closeable {
+
+    static final int PRESS_UP = 1;
+    static final int PRESS_DOWN = 2;
+    static final int TARGET = 3;
+    static final int CLAIM_UP = 4;
+    static final int CLAIM_DOWN = 5;
+    static final int ARRIVE = 6;
+
+    /**
+     * 占了槽位但最终没有发生的事件，例如认领失败或电梯原地不动
+     */
+    static final int SKIP = 7;
+
+    static final int RECORD_BYTES = 8;
+
+    private static final long MAGIC = 0x4c49_4654_4a4e_4c31L;
+    private static final int HEADER_BYTES = 32;
+
+    /**
+     * Receives journal records in append order during {@link #replay(Visitor)}.
+     */
+    interface Visitor {
+
+        void visit(int type, int car, int floor);
+    }
+
+    private final Path file;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final AtomicLong next = new AtomicLong();
+
+    /**
+     * 最近一次求得的 {@link #written()}，下次从这里继续向后找
+     */
+    private final AtomicLong written = new AtomicLong();
+
+    /**
+     * 已写入的记录数加上 begin 预留而尚未用掉的额度，不超过 capacity
+     */
+    private final AtomicLong admitted = new AtomicLong();
+
+    /**
+     * 进行中（begin 之后、end 之前）的写入数
+     */
+    private final AtomicInteger inflight = new AtomicInteger();
+    private final ScheduledExecutorService flusher;
+    private volatile long flushed;
+
+    /**
+     * 打开或创建日志文件
+     *
+     * @param capacity    最多可写入的记录数
+     * @param flushMillis 后台 force 的间隔，0 表示不启动后台线程，由调用方自行 {@link #sync()}
+     */
+    EventJournal(Path file, int totalFloors, int totalElevators, int capacity, long flushMillis) throws IOException {
+        if (capacity <= 0 || capacity > (Integer.MAX_VALUE - HEADER_BYTES) / RECORD_BYTES) {
+            throw new IllegalArgumentException("capacity out of range: " + capacity);
+        }
+        this.file = file;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        boolean created = channel.size() == 0;
+        long size = Math.max(channel.size(), HEADER_BYTES + (long) capacity * RECORD_BYTES);
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        this.buffer.order(ByteOrder.LITTLE_ENDIAN);
+        this.capacity = (int) ((size - HEADER_BYTES) / RECORD_BYTES);
+        if (created) {
+            buffer.putLong(0, MAGIC);
+            buffer.putInt(8, RECORD_BYTES);
+            buffer.putInt(12, totalFloors);
+            buffer.putInt(16, totalElevators);
+            buffer.force();
+        } else if (buffer.getLong(0) != MAGIC || buffer.getInt(8) != RECORD_BYTES) {
+            channel.close();
+            throw new IOException("not an elevator journal: " + file);
+        } else if (buffer.getInt(12) != totalFloors || buffer.getInt(16) != totalElevators) {
+            channel.close();
+            throw new IOException("journal was written for " + buffer.getInt(12) + " floors and "
+                    + buffer.getInt(16) + " elevators: " + file);
+        }
+        long end = 0;
+        while (end < this.capacity && buffer.getLong(offset(end)) != 0) {
+            end++;
+        }
+        next.set(end);
+        written.set(end);
+        admitted.set(end);
+        flushed = end;
+        if (flushMillis > 0) {
+            flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "event-journal-flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            flusher.scheduleWithFixedDelay(this::sync, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+        } else {
+            flusher = null;
+        }
+    }
+
+    /**
+     * 开始一次写入：为最多 records 条记录预留额度，之后 {@link #reserve()} 取的槽位一定存在。
+     * 每次成功的 begin 都要配一次 {@link #end(int)}
+     *
+     * @throws IllegalStateException 日志已满，此时没有预留任何额度
+     */
+    void begin(int records) {
+        inflight.incrementAndGet();
+        long current;
+        do {
+            current = admitted.get();
+            if (current + records > capacity) {
+                inflight.decrementAndGet();
+                throw new IllegalStateException("event journal is full (" + capacity + " records)");
+            }
+        } while (!admitted.compareAndSet(current, current + records));
+    }
+
+    /**
+     * @param unused begin 预留了但没有取槽位的记录数，归还给之后的写入
+     */
+    void end(int unused) {
+        if (unused > 0) {
+            admitted.addAndGet(-unused);
+        }
+        inflight.decrementAndGet();
+    }
+
+    /**
+     * 等待进行中的写入全部结束。调用方已把之后的写入引向别的日志段时，返回后本日志不会再变化
+     */
+    void awaitQuiescence() {
+        while (inflight.get() != 0) {
+            Thread.yield();
+        }
+    }
+
+    /**
+     * 在 begin 预留的额度内取一个槽位，写入前先占位以确定记录顺序
+     *
+     * @throws IllegalStateException 日志已满，只会在没有先 begin 时发生
+     */
+    long reserve() {
+        long slot = next.getAndIncrement();
+        if (slot >= capacity) {
+            next.decrementAndGet();
+            throw new IllegalStateException("event journal is full (" + capacity + " records)");
+        }
+        return slot;
+    }
+
+    void write(long slot, int type, int car, int floor) {
+        buffer.putLong(offset(slot), (long) type << 56 | (long) (car & 0xff_ffff) << 32 | (floor & 0xffff_ffffL));
+    }
+
+    void append(int type, int car, int floor) {
+        write(reserve(), type, car, floor);
+    }
+
+    /**
+     * @return 已写入（或已占位）的记录数
+     */
+    long size() {
+        return next.get();
+    }
+
+    /**
+     * 快照用这个位置而不是 {@link #size()}：占了槽位还没写入的记录（例如电梯移动之前先占的到达记录）
+     * 在快照之后才写入，回放必须从它开始
+     *
+     * @return 从头起连续写完的记录数，不含第一个已占位但还没写入的槽位及其之后的记录
+     */
+    long written() {
+        long end = Math.min(next.get(), capacity);
+        long w = written.get();
+        while (w < end && buffer.getLong(offset(w)) != 0) {
+            w++;
+        }
+        written.accumulateAndGet(w, Math::max);
+        return w;
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    Path file() {
+        return file;
+    }
+
+    /**
+     * 按写入顺序回放所有记录，跳过 {@link #SKIP}
+     */
+    void replay(Visitor visitor) {
+        replay(0, visitor);
+    }
+
+    /**
+     * 从第 from 条记录开始回放，用于在快照之上补齐快照之后的事件
+     */
+    void replay(long from, Visitor visitor) {
+        long end = next.get();
+        for (long i = from; i < end; i++) {
+            long record = buffer.getLong(offset(i));
+            int type = (int) (record >>> 56);
+            if (type == 0) {
+                // 占了槽位但还没写完，后面的记录不可信
+                return;
+            }
+            if (type != SKIP) {
+                visitor.visit(type, (int) (record >>> 32) & 0xff_ffff, (int) record);
+            }
+        }
+    }
+
+    /**
+     * 把新写入的记录刷到磁盘
+     */
+    void sync() {
+        long end = next.get();
+        if (end != flushed) {
+            buffer.force();
+            flushed = end;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (flusher != null) {
+            flusher.shutdown();
+        }
+        sync();
+        channel.close();
+    }
+
+    private static int offset(long slot) {
+        return (int) (HEADER_BYTES + slot * RECORD_BYTES);
+    }
+}
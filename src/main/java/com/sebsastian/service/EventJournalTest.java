@@ -0,0 +1,150 @@
+package com.sebsastian.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author sebastiangetts
+ */
+class EventJournalTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void restart_shall_restore_pending_calls_targets_and_floors() throws IOException {
+        Path file = dir.resolve("lift.journal");
+        try (EventJournal journal = new EventJournal(file, 10, 2, 1024, 0)) {
+            MyLift.ElevatorSystem system = MyLift.ElevatorSystem.builder(10, 2).journal(journal).build();
+            MyLift.Elevator elevator0 = system.getElevator(0);
+            MyLift.Elevator elevator1 = system.getElevator(1);
+            system.getFloorControlPanel(3).pressUp();
+            system.getFloorControlPanel(7).pressDown();
+            elevator0.goToNext();
+            elevator0.addTargetFloor(9);
+            elevator0.addTargetFloor(6);
+            elevator0.goToNext();
+            elevator1.addTargetFloor(2);
+
+            assertEquals(6, elevator0.getCurrentFloor());
+            assertFalse(system.getFloorControlPanel(3).isUpPressed());
+        }
+
+        try (EventJournal journal = new EventJournal(file, 10, 2, 1024, 0)) {
+            MyLift.ElevatorSystem restored = MyLift.ElevatorSystem.builder(10, 2).journal(journal).build();
+
+            assertFalse(restored.getFloorControlPanel(3).isUpPressed());
+            assertTrue(restored.getFloorControlPanel(7).isDownPressed());
+            assertEquals(6, restored.getElevator(0).getCurrentFloor());
+            assertEquals(1, restored.getElevator(0).getTargetFloors().size());
+            assertTrue(restored.getElevator(0).getTargetFloors().contains(9));
+            assertTrue(restored.getElevator(1).getTargetFloors().contains(2));
+
+            restored.step(3);
+            assertFalse(restored.getFloorControlPanel(7).isDownPressed());
+        }
+    }
+
+    @Test
+    void replay_shall_return_records_in_append_order() throws IOException {
+        Path file = dir.resolve("order.journal");
+        try (EventJournal journal = new EventJournal(file, 100, 300, 16, 0)) {
+            journal.append(EventJournal.PRESS_UP, 0, 42);
+            long skipped = journal.reserve();
+            journal.append(EventJournal.TARGET, 299, 99);
+            journal.write(skipped, EventJournal.SKIP, 0, 0);
+        }
+        List<String> records = new ArrayList<>();
+        try (EventJournal journal = new EventJournal(file, 100, 300, 16, 0)) {
+            journal.replay((type, car, floor) -> records.add(type + ":" + car + ":" + floor));
+            assertEquals(3, journal.size());
+        }
+
+        assertEquals(2, records.size());
+        assertEquals(EventJournal.PRESS_UP + ":0:42", records.get(0));
+        assertEquals(EventJournal.TARGET + ":299:99", records.get(1));
+    }
+
+    @Test
+    void full_journal_shall_reject_appends() throws IOException {
+        try (EventJournal journal = new EventJournal(dir.resolve("full.journal"), 10, 1, 2, 0)) {
+            journal.append(EventJournal.PRESS_UP, 0, 1);
+            journal.append(EventJournal.PRESS_UP, 0, 2);
+
+            assertThrows(IllegalStateException.class, () -> journal.append(EventJournal.PRESS_UP, 0, 3));
+            assertEquals(2, journal.size());
+        }
+    }
+
+    @Test
+    void full_journal_shall_reject_presses_and_hold_cars_without_side_effects() throws IOException {
+        try (EventJournal journal = new EventJournal(dir.resolve("full-system.journal"), 10, 1, 2, 0)) {
+            MyLift.ElevatorSystem system = MyLift.ElevatorSystem.builder(10, 1).journal(journal).build();
+            MyLift.Elevator car = system.getElevator(0);
+            assertTrue(system.getFloorControlPanel(3).pressUp());
+            assertTrue(car.addTargetFloor(6));
+
+            assertFalse(system.getFloorControlPanel(5).pressUp());
+            assertFalse(system.getFloorControlPanel(5).isUpPressed());
+            assertFalse(car.addTargetFloor(8));
+            assertFalse(car.hasTarget(8));
+            assertThrows(IllegalStateException.class, car::goToNext);
+            assertEquals(0, car.getCurrentFloor());
+            assertTrue(car.hasTarget(6));
+            assertTrue(system.getFloorControlPanel(3).isUpPressed());
+            assertEquals(2, journal.size());
+            assertEquals(1, system.getMetrics().getRejectedPresses());
+            assertEquals(1, system.getMetrics().getRejectedTargets());
+        }
+    }
+
+    @Test
+    void claim_on_a_full_journal_shall_keep_the_call_and_its_owner() throws IOException {
+        Path snapshot = dir.resolve("claim.snapshot");
+        Path segment = dir.resolve("claim-2.journal");
+        try (EventJournal journal = new EventJournal(dir.resolve("claim-1.journal"), 10, 1, 3, 0)) {
+            MyLift.ElevatorSystem system = MyLift.ElevatorSystem.builder(10, 1)
+                    .policy(DispatchPolicy.Standard.ETA).journal(journal).build();
+            MyLift.Elevator car = system.getElevator(0);
+            system.getFloorControlPanel(3).pressUp();
+
+            // 出发记录还放得下，认领3层的呼叫时日志已满
+            assertThrows(IllegalStateException.class, car::goToNext);
+            assertEquals(0, car.getCurrentFloor());
+            assertTrue(system.getFloorControlPanel(3).isUpPressed());
+            assertEquals(2, journal.size());
+
+            // 换到新的日志段后呼叫仍归这台电梯，不需要重新分配
+            try (EventJournal next = new EventJournal(segment, 10, 1, 16, 0)) {
+                assertSame(journal, SystemSnapshot.rollOver(system, snapshot, next));
+                car.goToNext();
+                assertEquals(3, car.getCurrentFloor());
+                assertFalse(system.getFloorControlPanel(3).isUpPressed());
+                assertEquals(2, journal.size());
+            }
+        }
+
+        try (EventJournal next = new EventJournal(segment, 10, 1, 16, 0)) {
+            MyLift.ElevatorSystem restored = SystemSnapshot.load(MyLift.ElevatorSystem.builder(10, 1)
+                    .policy(DispatchPolicy.Standard.ETA).build(), snapshot, next);
+
+            assertEquals(3, restored.getElevator(0).getCurrentFloor());
+            assertFalse(restored.getFloorControlPanel(3).isUpPressed());
+        }
+    }
+
+    @Test
+    void journal_of_another_building_shall_be_rejected() throws IOException {
+        Path file = dir.resolve("other.journal");
+        new EventJournal(file, 10, 1, 8, 0).close();
+
+        assertThrows(IOException.class, () -> new EventJournal(file, 20, 1, 8, 0));
+    }
+}
@@ -0,0 +1,474 @@
+package com.sebsastian.service;
+
+import java.io.Closeable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Single-writer ingestion of presses and cabin targets through a preallocated multi-producer ring buffer.
+ * 仿照 Disruptor：生产者在填充过的游标上原子地领取序号，把编码后的事件写入原始数组的槽位，再以 lazySet 写入该槽位的圈数完成发布；
+ * 发布不加锁、不分配对象。唯一的调度线程按批取出连续已发布的事件，在自己的线程上登记呼叫、分配电梯、添加target，
+ * 因此调度核心的共享状态只有一个写者。环满时发布方自旋等待（{@link #tryPublishUp} 等则直接返回false）。
+ * 事件编码与 {@link EventJournal} 相同：高8位类型、中间24位电梯编号、低32位楼层。
+ * 发布是异步的：按键是否有效（越界、重复）由调度线程判断并计入 {@link LiftMetrics}，需要同步结果时调用 {@link #drain()}。
+ * 电梯编号在发布时校验，没有该电梯的target直接计为被拒绝、不进入环。处理某个事件时抛出的异常只让该事件失败并计入 {@link #failures()}，调度线程继续处理后面的事件。
+ * 发布方先领取序号再检查是否已关闭，关闭时调度线程先清除运行标志再读游标：领取早于这次读取的序号都会被处理，
+ * 晚于它的发布方必然看到已关闭，写入 {@link EventJournal#SKIP} 占位后抛出异常，因此关闭时不会丢掉已接受的事件。
+ *
+ * @author sebastiangetts
+ */
+final class IngestionPipeline implements Closeable {
+
+    /**
+     * 调度线程每批最多处理的事件数，之后更新消费进度，让等待空位的生产者尽早继续
+     */
+    static final int MAX_BATCH = 1024;
+
+    /**
+     * How the dispatcher thread waits for events; the cheaper on CPU, the higher the wake-up latency.
+     */
+    enum WaitStrategy {
+        /**
+         * 一直自旋，延迟最低，独占一个CPU
+         */
+        BUSY_SPIN,
+        /**
+         * 自旋一阵后 Thread.yield
+         */
+        YIELDING,
+        /**
+         * 自旋、让出后按 {@link #SLEEP_NANOS} 小睡，空闲时几乎不占CPU
+         */
+        SLEEPING,
+        /**
+         * 在条件变量上等待，生产者只在调度线程确实睡着时才加锁唤醒它
+         */
+        BLOCKING;
+
+        static final int SPIN_TRIES = 100;
+        static final int YIELD_TRIES = 100;
+        static final long SLEEP_NANOS = 50_000;
+    }
+
+    private final MyLift.ElevatorSystem system;
+    private final MyLift.CallService callService;
+    private final WaitStrategy waitStrategy;
+
+    private final long[] entries;
+
+    /**
+     * 每个槽位最近一次发布时的圈数（序号右移 indexShift），初始为-1
+     */
+    private final AtomicIntegerArray published;
+    private final int mask;
+    private final int indexShift;
+
+    /**
+     * 下一个待领取的序号
+     */
+    private final Sequence cursor = new Sequence(0);
+
+    /**
+     * 已处理完的事件数，即下一个待处理的序号；只由调度线程写入
+     */
+    private final Sequence consumed = new Sequence(0);
+
+    /**
+     * 生产者最近读到的消费进度，环未满时不必每次都读调度线程正在写的缓存行
+     */
+    private final Sequence consumedCache = new Sequence(0);
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private volatile boolean sleeping;
+
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    private volatile long batches;
+
+    /**
+     * 处理时抛出异常的事件数，只由调度线程写入
+     */
+    private volatile long failures;
+
+    /**
+     * 领取序号后发现已关闭、只写了占位的发布数
+     */
+    private final AtomicLong abandoned = new AtomicLong();
+
+    /**
+     * 调度线程处理过的占位数，只由调度线程写入
+     */
+    private volatile long skipped;
+
+    /**
+     * @param bufferSize 环的槽位数，向上取整到2的幂
+     */
+    IngestionPipeline(MyLift.ElevatorSystem system, int bufferSize, WaitStrategy waitStrategy) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("buffer size must be positive: " + bufferSize);
+        }
+        int capacity = bufferSize == 1 ? 1 : Integer.highestOneBit(bufferSize - 1) << 1;
+        this.system = system;
+        this.callService = system.callService();
+        this.waitStrategy = waitStrategy;
+        this.entries = new long[capacity];
+        this.published = new AtomicIntegerArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            published.lazySet(i, -1);
+        }
+        this.mask = capacity - 1;
+        this.indexShift = Integer.numberOfTrailingZeros(capacity);
+        this.thread = new Thread(this::run, "lift-ingestion");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    int bufferSize() {
+        return entries.length;
+    }
+
+    WaitStrategy waitStrategy() {
+        return waitStrategy;
+    }
+
+    void publishUp(int floor) {
+        publish(EventJournal.PRESS_UP, 0, floor);
+    }
+
+    void publishDown(int floor) {
+        publish(EventJournal.PRESS_DOWN, 0, floor);
+    }
+
+    /**
+     * 没有该编号的电梯时计为被拒绝的target，事件不发布
+     */
+    void publishTarget(int car, int floor) {
+        if (validCar(car)) {
+            publish(EventJournal.TARGET, car, floor);
+        }
+    }
+
+    /**
+     * @return 环已满时为false，事件未发布
+     */
+    boolean tryPublishUp(int floor) {
+        return tryPublish(EventJournal.PRESS_UP, 0, floor);
+    }
+
+    boolean tryPublishDown(int floor) {
+        return tryPublish(EventJournal.PRESS_DOWN, 0, floor);
+    }
+
+    /**
+     * @return 环已满时为false；没有该编号的电梯时计为被拒绝并返回true
+     */
+    boolean tryPublishTarget(int car, int floor) {
+        return !validCar(car) || tryPublish(EventJournal.TARGET, car, floor);
+    }
+
+    /**
+     * @return 已发布的事件数，不含关闭时被拒绝的发布
+     */
+    long published() {
+        return cursor.get() - abandoned.get();
+    }
+
+    /**
+     * @return 已处理的事件数，不含关闭时被拒绝的发布留下的占位
+     */
+    long processed() {
+        return consumed.get() - skipped;
+    }
+
+    /**
+     * @return 调度线程处理过的批数，processed / batches 即平均批大小
+     */
+    long batches() {
+        return batches;
+    }
+
+    /**
+     * @return 处理时抛出异常而没有生效的事件数
+     */
+    long failures() {
+        return failures;
+    }
+
+    /**
+     * 等待调用前发布的事件全部处理完
+     *
+     * @throws IllegalStateException 流水线已关闭且事件不会再被处理
+     */
+    void drain() {
+        long target = cursor.get();
+        int round = 0;
+        while (consumed.get() < target) {
+            if (!thread.isAlive()) {
+                throw new IllegalStateException("ingestion pipeline is closed");
+            }
+            round = backoff(round);
+        }
+    }
+
+    /**
+     * 处理完已发布的事件后停止调度线程，之后发布会抛出 {@link IllegalStateException}
+     */
+    @Override
+    public void close() {
+        running = false;
+        wakeConsumer();
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void publish(int type, int car, int floor) {
+        ensureOpen();
+        long sequence = cursor.getAndIncrement();
+        // 领取之后再读运行标志，见类注释
+        boolean open = running;
+        long wrap = sequence - entries.length;
+        if (wrap >= consumedCache.get()) {
+            // 环已满，等调度线程腾出这个槽位
+            int round = 0;
+            long done;
+            while (wrap >= (done = consumed.get())) {
+                if (!thread.isAlive()) {
+                    // 已领取的序号永远不会被处理，不能再等
+                    throw new IllegalStateException("ingestion pipeline is closed");
+                }
+                round = backoff(round);
+            }
+            consumedCache.set(done);
+        }
+        commit(sequence, open, type, car, floor);
+    }
+
+    private boolean tryPublish(int type, int car, int floor) {
+        ensureOpen();
+        long sequence;
+        do {
+            sequence = cursor.get();
+            long wrap = sequence - entries.length;
+            if (wrap >= consumedCache.get()) {
+                long done = consumed.get();
+                if (wrap >= done) {
+                    return false;
+                }
+                consumedCache.set(done);
+            }
+        } while (!cursor.compareAndSet(sequence, sequence + 1));
+        commit(sequence, running, type, car, floor);
+        return true;
+    }
+
+    /**
+     * 写入已领取的序号；已关闭时调度线程可能还在等这个序号，所以写入占位再抛出异常
+     */
+    private void commit(long sequence, boolean open, int type, int car, int floor) {
+        if (open) {
+            write(sequence, type, car, floor);
+            return;
+        }
+        abandoned.incrementAndGet();
+        write(sequence, EventJournal.SKIP, 0, 0);
+        throw new IllegalStateException("ingestion pipeline is closed");
+    }
+
+    private boolean validCar(int car) {
+        ensureOpen();
+        if (car < 0 || car >= system.elevatorCount()) {
+            callService.metrics.recordRejectedTarget();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 关闭后环不再被消费，继续发布会在环满时永远等待
+     */
+    private void ensureOpen() {
+        if (!running) {
+            throw new IllegalStateException("ingestion pipeline is closed");
+        }
+    }
+
+    private void write(long sequence, int type, int car, int floor) {
+        int index = (int) sequence & mask;
+        entries[index] = (long) type << 56 | (long) (car & 0xff_ffff) << 32 | (floor & 0xffff_ffffL);
+        // 圈数的写入对调度线程发布了上面的事件
+        published.lazySet(index, (int) (sequence >>> indexShift));
+        if (waitStrategy == WaitStrategy.BLOCKING && sleeping) {
+            wakeConsumer();
+        }
+    }
+
+    private void wakeConsumer() {
+        if (waitStrategy == WaitStrategy.BLOCKING) {
+            lock.lock();
+            try {
+                notEmpty.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private boolean isPublished(long sequence) {
+        return published.get((int) sequence & mask) == (int) (sequence >>> indexShift);
+    }
+
+    private void run() {
+        try {
+            consume();
+        } finally {
+            // 调度线程意外退出时也让之后的发布立即失败
+            running = false;
+        }
+    }
+
+    private void consume() {
+        long next = consumed.get();
+        int round = 0;
+        while (true) {
+            long end = next;
+            while (end - next < MAX_BATCH && isPublished(end)) {
+                end++;
+            }
+            if (end == next) {
+                // 关闭时先确认没有已领取但还没写完的事件；此后领取的发布方会看到已关闭
+                if (!running && cursor.get() == next) {
+                    return;
+                }
+                round = idle(round, next);
+                continue;
+            }
+            round = 0;
+            for (long s = next; s < end; s++) {
+                try {
+                    apply(entries[(int) s & mask]);
+                } catch (RuntimeException e) {
+                    failures++;
+                }
+            }
+            batches++;
+            next = end;
+            consumed.set(next);
+        }
+    }
+
+    private void apply(long event) {
+        int type = (int) (event >>> 56);
+        int car = (int) (event << 8 >> 40);
+        int floor = (int) event;
+        switch (type) {
+            case EventJournal.PRESS_UP:
+                callService.handlePressUp(floor);
+                break;
+            case EventJournal.PRESS_DOWN:
+                callService.handlePressDown(floor);
+                break;
+            case EventJournal.SKIP:
+                skipped++;
+                break;
+            default:
+                if (car >= 0 && car < system.elevatorCount()) {
+                    system.getElevator(car).addTargetFloor(floor);
+                } else {
+                    callService.metrics.recordRejectedTarget();
+                }
+                break;
+        }
+    }
+
+    private int idle(int round, long next) {
+        if (waitStrategy == WaitStrategy.BLOCKING && round >= WaitStrategy.SPIN_TRIES) {
+            lock.lock();
+            try {
+                sleeping = true;
+                // 置位后再检查一次，避免错过刚好在此之前发布、没看到 sleeping 的事件；
+                // lazySet 与读 sleeping 之间仍可能重排，所以等待带超时
+                if (running && !isPublished(next)) {
+                    notEmpty.await(1, TimeUnit.MILLISECONDS);
+                }
+            } catch (InterruptedException e) {
+                running = false;
+            } finally {
+                sleeping = false;
+                lock.unlock();
+            }
+            return round;
+        }
+        return waitStrategy == WaitStrategy.BUSY_SPIN ? round : backoff(round);
+    }
+
+    /**
+     * 先自旋，再让出CPU，最后短暂休眠
+     */
+    private int backoff(int round) {
+        if (round < WaitStrategy.SPIN_TRIES) {
+            return round + 1;
+        }
+        if (round < WaitStrategy.SPIN_TRIES + WaitStrategy.YIELD_TRIES || waitStrategy == WaitStrategy.YIELDING) {
+            Thread.yield();
+            return round + 1;
+        }
+        LockSupport.parkNanos(WaitStrategy.SLEEP_NANOS);
+        return round;
+    }
+
+    /**
+     * A volatile long padded on both sides so producers and the dispatcher thread do not false-share a cache line.
+     * 用继承固定字段布局：JVM 不会把子类的字段排到父类字段之前。
+     */
+    static class LeftPadding {
+        long p1, p2, p3, p4, p5, p6, p7;
+    }
+
+    static class SequenceValue extends LeftPadding {
+        volatile long value;
+    }
+
+    static final class Sequence extends SequenceValue {
+
+        private static final AtomicLongFieldUpdater<SequenceValue> VALUE =
+                AtomicLongFieldUpdater.newUpdater(SequenceValue.class, "value");
+
+        long p9, p10, p11, p12, p13, p14, p15;
+
+        Sequence(long initial) {
+            value = initial;
+        }
+
+        long get() {
+            return value;
+        }
+
+        void set(long v) {
+            VALUE.lazySet(this, v);
+        }
+
+        long getAndIncrement() {
+            return VALUE.getAndIncrement(this);
+        }
+
+        boolean compareAndSet(long expect, long update) {
+            return VALUE.compareAndSet(this, expect, update);
+        }
+    }
+}
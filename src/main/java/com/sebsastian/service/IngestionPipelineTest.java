@@ -0,0 +1,220 @@
+package com.sebsastian.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author sebastiangetts
+ */
+class IngestionPipelineTest {
+
+    @Test
+    void presses_from_many_threads_shall_all_be_registered() throws Exception {
+        int floors = 4_096;
+        int threads = 4;
+        MyLift.ElevatorSystem system = new MyLift.ElevatorSystem(floors, 4);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try (IngestionPipeline pipeline = system.startIngestion(64, IngestionPipeline.WaitStrategy.YIELDING)) {
+            Future<?>[] runs = new Future<?>[threads];
+            for (int t = 0; t < threads; t++) {
+                int first = t;
+                runs[t] = pool.submit(() -> {
+                    for (int f = first + 1; f < floors - 1; f += threads) {
+                        system.getFloorControlPanel(f).publishUp();
+                        system.getFloorControlPanel(f).publishDown();
+                    }
+                });
+            }
+            for (Future<?> run : runs) {
+                run.get();
+            }
+            pipeline.drain();
+
+            assertEquals(pipeline.published(), pipeline.processed());
+            assertTrue(pipeline.batches() > 0 && pipeline.batches() <= pipeline.processed());
+        } finally {
+            pool.shutdown();
+        }
+        for (int f = 1; f < floors - 1; f++) {
+            assertTrue(system.callService().isUpPressed(f), "up " + f);
+            assertTrue(system.callService().isDownPressed(f), "down " + f);
+        }
+        assertEquals(0, system.getMetrics().getRejectedPresses());
+    }
+
+    @Test
+    void every_wait_strategy_shall_deliver_events() {
+        for (IngestionPipeline.WaitStrategy strategy : IngestionPipeline.WaitStrategy.values()) {
+            MyLift.ElevatorSystem system = new MyLift.ElevatorSystem(10, 2);
+            try (IngestionPipeline pipeline = system.startIngestion(8, strategy)) {
+                pipeline.publishUp(3);
+                pipeline.publishDown(7);
+                pipeline.publishTarget(1, 5);
+                pipeline.drain();
+            }
+
+            assertTrue(system.getFloorControlPanel(3).isUpPressed(), strategy.name());
+            assertTrue(system.getFloorControlPanel(7).isDownPressed(), strategy.name());
+            assertTrue(system.getElevator(1).hasTarget(5), strategy.name());
+        }
+    }
+
+    @Test
+    void try_publish_shall_fail_while_the_ring_is_full() throws InterruptedException {
+        MyLift.ElevatorSystem system = new MyLift.ElevatorSystem(10, 1);
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        // 呼叫登记时读时钟，借此让调度线程停在第一个事件上
+        system.enableAging(TimeUnit.SECONDS.toNanos(60), () -> {
+            blocked.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return System.nanoTime();
+        });
+        try (IngestionPipeline pipeline = system.startIngestion(4, IngestionPipeline.WaitStrategy.SLEEPING)) {
+            pipeline.publishUp(1);
+            assertTrue(blocked.await(5, TimeUnit.SECONDS));
+            for (int f = 2; f < 5; f++) {
+                assertTrue(pipeline.tryPublishUp(f));
+            }
+            assertFalse(pipeline.tryPublishUp(5));
+
+            release.countDown();
+            pipeline.drain();
+            assertTrue(pipeline.tryPublishUp(5));
+            pipeline.drain();
+        }
+        for (int f = 1; f <= 5; f++) {
+            assertTrue(system.callService().isUpPressed(f), "up " + f);
+        }
+    }
+
+    @Test
+    void invalid_events_shall_be_counted_as_rejected() {
+        MyLift.ElevatorSystem system = new MyLift.ElevatorSystem(10, 2);
+        try (IngestionPipeline pipeline = system.startIngestion(8, IngestionPipeline.WaitStrategy.BLOCKING)) {
+            pipeline.publishUp(9);
+            pipeline.publishDown(0);
+            pipeline.publishTarget(2, 3);
+            pipeline.publishTarget(0, -1);
+            pipeline.drain();
+        }
+
+        assertEquals(2, system.getMetrics().getRejectedPresses());
+        assertEquals(2, system.getMetrics().getRejectedTargets());
+    }
+
+    @Test
+    void unknown_car_shall_be_rejected_before_publishing() {
+        MyLift.ElevatorSystem system = new MyLift.ElevatorSystem(10, 2);
+        try (IngestionPipeline pipeline = system.startIngestion(8, IngestionPipeline.WaitStrategy.BLOCKING)) {
+            pipeline.publishTarget(-1, 3);
+            assertTrue(pipeline.tryPublishTarget(2, 3));
+            pipeline.publishTarget(1, 3);
+            pipeline.drain();
+
+            assertEquals(1, pipeline.published());
+            assertEquals(0, pipeline.failures());
+            assertTrue(system.getElevator(1).hasTarget(3));
+        }
+        assertEquals(2, system.getMetrics().getRejectedTargets());
+    }
+
+    @Test
+    void failing_event_shall_not_stop_the_dispatcher_thread() {
+        MyLift.ElevatorSystem system = new MyLift.ElevatorSystem(10, 1);
+        AtomicBoolean broken = new AtomicBoolean(true);
+        // 第一次登记时时钟出错
+        system.enableAging(TimeUnit.SECONDS.toNanos(60), () -> {
+            if (broken.getAndSet(false)) {
+                throw new IllegalStateException("clock unavailable");
+            }
+            return System.nanoTime();
+        });
+        try (IngestionPipeline pipeline = system.startIngestion(4, IngestionPipeline.WaitStrategy.YIELDING)) {
+            pipeline.publishUp(3);
+            for (int f = 4; f < 9; f++) {
+                pipeline.publishUp(f);
+            }
+            pipeline.drain();
+
+            assertEquals(1, pipeline.failures());
+            assertEquals(6, pipeline.processed());
+        }
+        for (int f = 4; f < 9; f++) {
+            assertTrue(system.callService().isUpPressed(f), "up " + f);
+        }
+    }
+
+    @Test
+    void closed_pipeline_shall_refuse_new_events() {
+        MyLift.ElevatorSystem system = new MyLift.ElevatorSystem(10, 1);
+        MyLift.FloorControlPanel panel = system.getFloorControlPanel(4);
+        assertThrows(IllegalStateException.class, panel::publishUp);
+
+        IngestionPipeline pipeline = system.startIngestion(8, IngestionPipeline.WaitStrategy.BLOCKING);
+        panel.publishUp();
+        pipeline.close();
+
+        assertTrue(panel.isUpPressed());
+        assertThrows(IllegalStateException.class, panel::publishDown);
+        assertThrows(IllegalStateException.class, () -> pipeline.tryPublishTarget(0, 3));
+    }
+
+    @Test
+    void close_racing_publishers_shall_process_every_accepted_event() throws Exception {
+        int threads = 4;
+        MyLift.ElevatorSystem system = new MyLift.ElevatorSystem(1_000, 2);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            for (int round = 0; round < 50; round++) {
+                // 环很小，关闭时既有等空位的发布方，也有刚领取序号的发布方
+                IngestionPipeline pipeline = system.startIngestion(4, IngestionPipeline.WaitStrategy.YIELDING);
+                CountDownLatch started = new CountDownLatch(threads);
+                Future<?>[] runs = new Future<?>[threads];
+                long[] accepted = new long[threads];
+                for (int t = 0; t < threads; t++) {
+                    int id = t;
+                    runs[t] = pool.submit(() -> {
+                        started.countDown();
+                        try {
+                            while (true) {
+                                if (id % 2 == 0) {
+                                    pipeline.publishTarget(id / 2, 500);
+                                    accepted[id]++;
+                                } else if (pipeline.tryPublishTarget(id / 2, 500)) {
+                                    accepted[id]++;
+                                }
+                            }
+                        } catch (IllegalStateException closed) {
+                            return;
+                        }
+                    });
+                }
+                started.await();
+                pipeline.close();
+                long total = 0;
+                for (int t = 0; t < threads; t++) {
+                    runs[t].get(10, TimeUnit.SECONDS);
+                    total += accepted[t];
+                }
+
+                assertEquals(total, pipeline.published(), "round " + round);
+                assertEquals(total, pipeline.processed(), "round " + round);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.sebsastian.service;
+
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Push notifications of call and car state changes, so displays need not poll the panels and cars.
+ * 每个订阅者有自己的定长环形缓冲区，发布方只做一次 CAS 入队，投递在订阅者的 executor 上异步进行；
+ * 缓冲区满时丢弃新事件并计数，慢订阅者不会拖慢 {@link MyLift.Elevator#goToNext()}。
+ * 没有订阅者时发布只是一次 volatile 读。
+ *
+ * @author sebastiangetts
+ */
+final class LiftEvents {
+
+    static final int CALL_REGISTERED_UP = 1;
+    static final int CALL_REGISTERED_DOWN = 2;
+    static final int CALL_ASSIGNED_UP = 3;
+    static final int CALL_ASSIGNED_DOWN = 4;
+    static final int CALL_SERVED_UP = 5;
+    static final int CALL_SERVED_DOWN = 6;
+    static final int CAR_ARRIVED = 7;
+
+    /**
+     * 方向变化事件，floor 为变化时所在的楼层
+     */
+    static final int CAR_DIRECTION_UP = 8;
+    static final int CAR_DIRECTION_DOWN = 9;
+    static final int CAR_DIRECTION_IDLE = 10;
+
+    /**
+     * 每次投递任务最多处理的事件数，之后让出线程
+     */
+    static final int DRAIN_BATCH = 256;
+
+    /**
+     * Receives events on the subscription's executor, one at a time and in publish order per subscription.
+     * 与呼叫本身无关的电梯编号（如登记事件）为-1。
+     */
+    interface Listener {
+
+        void onEvent(int type, int car, int floor);
+    }
+
+    private static final Subscription[] NONE = new Subscription[0];
+
+    private volatile Subscription[] subscriptions = NONE;
+
+    /**
+     * 在公共 ForkJoinPool 上投递
+     */
+    Subscription subscribe(Listener listener, int bufferSize) {
+        return subscribe(listener, bufferSize, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param bufferSize 该订阅者最多积压的事件数，向上取整到2的幂
+     * @param executor   投递事件的线程
+     */
+    synchronized Subscription subscribe(Listener listener, int bufferSize, Executor executor) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("buffer size must be positive: " + bufferSize);
+        }
+        Subscription subscription = new Subscription(this, listener, bufferSize, executor);
+        Subscription[] current = subscriptions;
+        Subscription[] next = Arrays.copyOf(current, current.length + 1);
+        next[current.length] = subscription;
+        subscriptions = next;
+        return subscription;
+    }
+
+    private synchronized void remove(Subscription subscription) {
+        Subscription[] current = subscriptions;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == subscription) {
+                Subscription[] next = new Subscription[current.length - 1];
+                System.arraycopy(current, 0, next, 0, i);
+                System.arraycopy(current, i + 1, next, i, current.length - i - 1);
+                subscriptions = next;
+                return;
+            }
+        }
+    }
+
+    boolean hasSubscribers() {
+        return subscriptions.length != 0;
+    }
+
+    void publish(int type, int car, int floor) {
+        Subscription[] current = subscriptions;
+        if (current.length == 0) {
+            return;
+        }
+        long event = (long) type << 56 | (long) (car & 0xff_ffff) << 32 | (floor & 0xffff_ffffL);
+        for (Subscription subscription : current) {
+            subscription.offer(event);
+        }
+    }
+
+    /**
+     * One subscriber's bounded buffer: multi-producer, single-consumer ring of encoded events, 0 marks an empty slot.
+     */
+    static final class Subscription implements Runnable {
+
+        private final LiftEvents owner;
+        private final Listener listener;
+        private final Executor executor;
+        private final AtomicLongArray ring;
+        private final int mask;
+        private final AtomicLong tail = new AtomicLong();
+        private final AtomicLong head = new AtomicLong();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final LongAdder dropped = new LongAdder();
+        private volatile boolean cancelled;
+
+        private Subscription(LiftEvents owner, Listener listener, int bufferSize, Executor executor) {
+            int capacity = bufferSize == 1 ? 1 : Integer.highestOneBit(bufferSize - 1) << 1;
+            this.owner = owner;
+            this.listener = listener;
+            this.executor = executor;
+            this.ring = new AtomicLongArray(capacity);
+            this.mask = capacity - 1;
+        }
+
+        /**
+         * 停止接收新事件，已入队的事件不再投递
+         */
+        void cancel() {
+            cancelled = true;
+            owner.remove(this);
+        }
+
+        boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * @return 因缓冲区已满而丢弃的事件数
+         */
+        long dropped() {
+            return dropped.sum();
+        }
+
+        /**
+         * @return 已入队尚未投递的事件数
+         */
+        int pending() {
+            return (int) (tail.get() - head.get());
+        }
+
+        private void offer(long event) {
+            long slot;
+            do {
+                slot = tail.get();
+                if (slot - head.get() > mask) {
+                    dropped.increment();
+                    return;
+                }
+            } while (!tail.compareAndSet(slot, slot + 1));
+            ring.set((int) slot & mask, event);
+            if (scheduled.compareAndSet(false, true)) {
+                schedule();
+            }
+        }
+
+        private void schedule() {
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                // executor 已关闭，订阅随之失效，不影响发布方
+                cancel();
+            }
+        }
+
+        /**
+         * 投递任务：同一时刻最多只有一个在运行，因此消费端无需同步
+         */
+        @Override
+        public void run() {
+            long h = head.get();
+            for (int n = 0; n < DRAIN_BATCH && !cancelled; n++) {
+                int index = (int) h & mask;
+                long event = ring.get(index);
+                if (event == 0) {
+                    // 生产者占了槽位还没写入
+                    break;
+                }
+                ring.set(index, 0);
+                head.lazySet(++h);
+                try {
+                    listener.onEvent((int) (event >>> 56), (int) (event << 8 >> 40), (int) event);
+                } catch (RuntimeException e) {
+                    cancel();
+                    throw e;
+                }
+            }
+            scheduled.set(false);
+            if (!cancelled && tail.get() != head.get() && scheduled.compareAndSet(false, true)) {
+                schedule();
+            }
+        }
+    }
+}
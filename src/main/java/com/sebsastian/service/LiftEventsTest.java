@@ -0,0 +1,121 @@
+package com.sebsastian.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author sebastiangetts
+ */
+class LiftEventsTest {
+
+    private final List<String> received = new ArrayList<>();
+
+    private void record(int type, int car, int floor) {
+        received.add(type + ":" + car + ":" + floor);
+    }
+
+    @Test
+    void call_lifecycle_shall_be_pushed_in_order() {
+        MyLift.ElevatorSystem system = MyLift.ElevatorSystem.builder(10, 1).policy(DispatchPolicy.Standard.ETA).build();
+        system.events().subscribe(this::record, 16, Runnable::run);
+
+        system.getFloorControlPanel(5).pressUp();
+        system.step();
+
+        assertEquals(Arrays.asList(
+                LiftEvents.CALL_REGISTERED_UP + ":-1:5",
+                LiftEvents.CALL_ASSIGNED_UP + ":0:5",
+                LiftEvents.CALL_SERVED_UP + ":0:5",
+                LiftEvents.CAR_ARRIVED + ":0:5"), received);
+    }
+
+    @Test
+    void direction_changes_shall_be_pushed() {
+        MyLift.ElevatorSystem system = new MyLift.ElevatorSystem(10, 1);
+        system.getElevator(0).addTargetFloor(3);
+        system.getElevator(0).addTargetFloor(6);
+        system.events().subscribe(this::record, 16, Runnable::run);
+
+        system.step(3);
+
+        assertEquals(Arrays.asList(
+                LiftEvents.CAR_ARRIVED + ":0:3",
+                LiftEvents.CAR_DIRECTION_UP + ":0:3",
+                LiftEvents.CAR_ARRIVED + ":0:6",
+                LiftEvents.CAR_DIRECTION_IDLE + ":0:6"), received);
+    }
+
+    @Test
+    void slow_subscriber_shall_drop_events_instead_of_blocking() {
+        MyLift.ElevatorSystem system = new MyLift.ElevatorSystem(20, 1);
+        List<Runnable> parked = new ArrayList<>();
+        LiftEvents.Subscription subscription = system.events().subscribe(this::record, 4, parked::add);
+
+        for (int f = 1; f <= 10; f++) {
+            system.getElevator(0).addTargetFloor(f);
+        }
+        system.step(10);
+
+        assertEquals(10, system.getElevator(0).getCurrentFloor());
+        assertEquals(1, parked.size());
+        assertEquals(4, subscription.pending());
+        assertTrue(subscription.dropped() > 0);
+
+        parked.get(0).run();
+        assertEquals(4, received.size());
+        assertEquals(LiftEvents.CAR_ARRIVED + ":0:1", received.get(0));
+        assertEquals(0, subscription.pending());
+    }
+
+    @Test
+    void events_shall_be_delivered_asynchronously_until_cancelled() throws InterruptedException {
+        MyLift.ElevatorSystem system = new MyLift.ElevatorSystem(10, 2);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            CountDownLatch registered = new CountDownLatch(3);
+            LiftEvents.Subscription subscription = system.events().subscribe((type, car, floor) -> {
+                if (type == LiftEvents.CALL_REGISTERED_DOWN) {
+                    registered.countDown();
+                }
+            }, 64, executor);
+
+            system.pressDown(new int[]{3, 5, 7});
+            assertTrue(registered.await(10, TimeUnit.SECONDS));
+
+            subscription.cancel();
+            assertTrue(subscription.isCancelled());
+            assertFalse(system.events().hasSubscribers());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void failing_listener_shall_be_unsubscribed() {
+        MyLift.ElevatorSystem system = new MyLift.ElevatorSystem(10, 1);
+        LiftEvents.Subscription subscription = system.events().subscribe((type, car, floor) -> {
+            throw new IllegalStateException("display offline");
+        }, 4, r -> {
+            try {
+                r.run();
+            } catch (IllegalStateException ignored) {
+                // 由执行器吞掉
+            }
+        });
+
+        assertTrue(system.getFloorControlPanel(2).pressUp());
+
+        assertTrue(subscription.isCancelled());
+        assertFalse(system.events().hasSubscribers());
+        assertTrue(system.getFloorControlPanel(4).pressUp());
+    }
+}
@@ -0,0 +1,313 @@
+package com.sebsastian.service;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Embedded HTTP control endpoint for kiosks and car controllers, built on the JDK's {@code com.sun.net.httpserver}.
+ * 请求体是一批单字母命令，每行一条，先整体解析再依次执行，响应按同样的顺序每条命令一行：
+ * <pre>
+ * U floor        向上按键，返回 1/0
+ * D floor        向下按键，返回 1/0
+ * T car floor    添加目的楼层，返回 1/0
+ * G car          电梯前进一步，返回到达的楼层
+ * C car          电梯状态：楼层 方向 载客数
+ * P floor        面板状态：向上按下为1，向下按下为2，相加
+ * R floor to     在该楼层登记目的楼层，返回分配到的电梯，无效时为-1
+ * </pre>
+ * POST {@value #PATH} 执行一批命令，GET {@value #PATH} 返回所有电梯的状态。任一命令语法错误时整批不执行并返回400；
+ * 执行中某条命令抛出异常时返回500并指明是第几条，之前的命令已经生效。
+ * 同一台电梯的 G 命令按电梯串行执行，其余命令本身是无锁的。
+ * <p>
+ * JDK 服务器分两次写出响应头和响应体，不关闭 Nagle 时每个小响应都要等对端的延迟确认（约40毫秒）。
+ * 需要低延迟的进程应在创建第一个 HttpServer 之前把系统属性 {@value #NODELAY_PROPERTY} 设为 true，
+ * 它作用于整个进程的所有 HttpServer，因此由启动方（如 {@link LiftLoadClient#main}）决定，本类不修改它。
+ *
+ * @author sebastiangetts
+ */
+final class LiftHttpServer implements Closeable {
+
+    static final String PATH = "/lift";
+
+    /**
+     * 单个请求体的上限
+     */
+    static final int MAX_BODY_BYTES = 1 << 20;
+
+    /**
+     * JDK HttpServer 在首次创建服务器时读取的 TCP_NODELAY 开关
+     */
+    static final String NODELAY_PROPERTY = "sun.net.httpserver.nodelay";
+
+    private static final int ARGS = 2;
+
+    private final MyLift.ElevatorSystem system;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * 每台电梯一把锁，goToNext 要求同一时刻只有一个线程推进该电梯
+     */
+    private final Object[] carLocks;
+
+    /**
+     * @param address 端口为0时由系统分配空闲端口
+     */
+    LiftHttpServer(MyLift.ElevatorSystem system, InetSocketAddress address) throws IOException {
+        this(system, address, defaultExecutor());
+    }
+
+    /**
+     * @param executor 处理请求的线程，关闭服务器时一并关闭
+     */
+    LiftHttpServer(MyLift.ElevatorSystem system, InetSocketAddress address, ExecutorService executor)
+            throws IOException {
+        this.system = system;
+        this.executor = executor;
+        this.carLocks = new Object[system.elevatorCount()];
+        for (int e = 0; e < carLocks.length; e++) {
+            carLocks[e] = new Object();
+        }
+        this.server = HttpServer.create(address, 0);
+        server.createContext(PATH, this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * 运行在 Java 21 及以上时每个请求一个虚拟线程，否则使用与CPU数相同的守护线程池
+     */
+    static ExecutorService defaultExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger count = new AtomicInteger();
+            return Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()), r -> {
+                Thread thread = new Thread(r, "lift-http-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    int port() {
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            if ("GET".equals(method)) {
+                StringBuilder out = new StringBuilder(16 * carLocks.length);
+                for (int e = 0; e < carLocks.length; e++) {
+                    carState(e, out);
+                    out.append('\n');
+                }
+                respond(exchange, 200, out);
+            } else if ("POST".equals(method)) {
+                byte[] body = readBody(exchange.getRequestBody());
+                if (body == null) {
+                    respond(exchange, 413, "request body exceeds " + MAX_BODY_BYTES + " bytes\n");
+                    return;
+                }
+                int[] commands;
+                try {
+                    commands = parse(body);
+                } catch (IllegalArgumentException e) {
+                    respond(exchange, 400, e.getMessage() + '\n');
+                    return;
+                }
+                StringBuilder out = new StringBuilder(commands.length);
+                execute(commands, out);
+                respond(exchange, 200, out);
+            } else {
+                exchange.getResponseHeaders().set("Allow", "GET, POST");
+                respond(exchange, 405, "");
+            }
+        } catch (RuntimeException e) {
+            // 响应头已经发出时只能断开连接
+            if (exchange.getResponseCode() < 0) {
+                respond(exchange, 500, e.getMessage() + '\n');
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * @return 每条命令占 {@value #ARGS} + 1 个槽位：操作码与参数
+     * @throws IllegalArgumentException 语法错误或电梯编号越界
+     */
+    private int[] parse(byte[] body) {
+        int[] commands = new int[64];
+        int n = 0;
+        int line = 0;
+        int p = 0;
+        while (p < body.length) {
+            line++;
+            int end = p;
+            while (end < body.length && body[end] != '\n') {
+                end++;
+            }
+            int stop = end > p && body[end - 1] == '\r' ? end - 1 : end;
+            p = skipSpaces(body, p, stop);
+            if (p < stop) {
+                if (n + ARGS + 1 > commands.length) {
+                    commands = Arrays.copyOf(commands, commands.length * 2);
+                }
+                byte op = body[p++];
+                int args;
+                switch (op) {
+                    case 'U':
+                    case 'D':
+                    case 'G':
+                    case 'C':
+                    case 'P':
+                        args = 1;
+                        break;
+                    case 'T':
+                    case 'R':
+                        args = 2;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("line " + line + ": unknown command " + (char) op);
+                }
+                commands[n] = op;
+                for (int a = 1; a <= args; a++) {
+                    int start = skipSpaces(body, p, stop);
+                    int value = 0;
+                    for (p = start; p < stop && body[p] >= '0' && body[p] <= '9'; p++) {
+                        if (value > (Integer.MAX_VALUE - 9) / 10) {
+                            throw new IllegalArgumentException("line " + line + ": number out of range");
+                        }
+                        value = value * 10 + body[p] - '0';
+                    }
+                    if (p == start) {
+                        throw new IllegalArgumentException("line " + line + ": expected a number after " + (char) op);
+                    }
+                    commands[n + a] = value;
+                }
+                if (skipSpaces(body, p, stop) != stop) {
+                    throw new IllegalArgumentException("line " + line + ": trailing characters");
+                }
+                if ((op == 'T' || op == 'G' || op == 'C') && commands[n + 1] >= carLocks.length) {
+                    throw new IllegalArgumentException("line " + line + ": no car " + commands[n + 1]);
+                }
+                n += ARGS + 1;
+            }
+            p = end + 1;
+        }
+        return Arrays.copyOf(commands, n);
+    }
+
+    private static int skipSpaces(byte[] body, int p, int stop) {
+        while (p < stop && body[p] == ' ') {
+            p++;
+        }
+        return p;
+    }
+
+    /**
+     * @throws IllegalStateException 某条命令执行失败，消息中指明是第几条
+     */
+    private void execute(int[] commands, StringBuilder out) {
+        for (int i = 0; i < commands.length; i += ARGS + 1) {
+            try {
+                execute(commands, i, out);
+            } catch (RuntimeException e) {
+                throw new IllegalStateException("command " + (i / (ARGS + 1) + 1) + " " + (char) commands[i]
+                        + ": " + e, e);
+            }
+            out.append('\n');
+        }
+    }
+
+    private void execute(int[] commands, int i, StringBuilder out) {
+        MyLift.CallService callService = system.callService();
+        int a = commands[i + 1];
+        switch (commands[i]) {
+            case 'U':
+                out.append(callService.handlePressUp(a) ? '1' : '0');
+                break;
+            case 'D':
+                out.append(callService.handlePressDown(a) ? '1' : '0');
+                break;
+            case 'T':
+                out.append(system.getElevator(a).addTargetFloor(commands[i + 2]) ? '1' : '0');
+                break;
+            case 'G':
+                synchronized (carLocks[a]) {
+                    MyLift.Elevator elevator = system.getElevator(a);
+                    elevator.goToNext();
+                    out.append(elevator.getCurrentFloor());
+                }
+                break;
+            case 'C':
+                carState(a, out);
+                break;
+            case 'R':
+                out.append(callService.requestDestination(a, commands[i + 2]));
+                break;
+            default:
+                boolean valid = a < system.totalFloors();
+                out.append((valid && callService.isUpPressed(a) ? 1 : 0)
+                        + (valid && callService.isDownPressed(a) ? 2 : 0));
+                break;
+        }
+    }
+
+    private void carState(int car, StringBuilder out) {
+        MyLift.Elevator elevator = system.getElevator(car);
+        out.append(elevator.getCurrentFloor()).append(' ').append(elevator.getDirection().name())
+                .append(' ').append(elevator.getLoad());
+    }
+
+    /**
+     * @return 超过 {@link #MAX_BODY_BYTES} 时为空
+     */
+    private static byte[] readBody(InputStream in) throws IOException {
+        byte[] body = new byte[256];
+        int n = 0;
+        while (true) {
+            if (n == body.length) {
+                if (n == MAX_BODY_BYTES) {
+                    return in.read() < 0 ? body : null;
+                }
+                body = Arrays.copyOf(body, Math.min(n * 2, MAX_BODY_BYTES));
+            }
+            int read = in.read(body, n, body.length - n);
+            if (read < 0) {
+                return Arrays.copyOf(body, n);
+            }
+            n += read;
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, CharSequence text) throws IOException {
+        byte[] bytes = text.toString().getBytes(StandardCharsets.US_ASCII);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=us-ascii");
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        if (bytes.length > 0) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.sebsastian.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author sebastiangetts
+ */
+class LiftHttpServerTest {
+
+    private MyLift.ElevatorSystem system;
+    private LiftHttpServer server;
+    private URL url;
+
+    @BeforeEach
+    void start() throws IOException {
+        system = MyLift.ElevatorSystem.builder(10, 2).policy(DispatchPolicy.Standard.ETA).build();
+        server = new LiftHttpServer(system, new InetSocketAddress("127.0.0.1", 0));
+        url = new URL("http://127.0.0.1:" + server.port() + LiftHttpServer.PATH);
+    }
+
+    @AfterEach
+    void stop() {
+        server.close();
+    }
+
+    private HttpURLConnection request(String method, String body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod(method);
+        if (body != null) {
+            connection.setDoOutput(true);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body.getBytes(StandardCharsets.US_ASCII));
+            }
+        }
+        return connection;
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[256];
+        for (int n; (n = in.read(buffer)) > 0; ) {
+            out.write(buffer, 0, n);
+        }
+        in.close();
+        return new String(out.toByteArray(), StandardCharsets.US_ASCII);
+    }
+
+    private String post(String body) throws IOException {
+        HttpURLConnection connection = request("POST", body);
+        assertEquals(200, connection.getResponseCode());
+        return read(connection.getInputStream());
+    }
+
+    @Test
+    void batch_shall_answer_each_command_in_order() throws IOException {
+        String response = post("U 3\nU3\nD 0\r\nP 3\n\nT 1 7\nT 1 99\nG 1\nC 1\n");
+
+        assertEquals("1\n0\n0\n1\n1\n0\n7\n7 IDLE 0\n", response);
+        assertTrue(system.getFloorControlPanel(3).isUpPressed());
+        assertEquals(7, system.getElevator(1).getCurrentFloor());
+        assertEquals(2, system.getMetrics().getRejectedPresses());
+    }
+
+    @Test
+    void destination_request_shall_answer_the_assigned_car() throws IOException {
+        assertEquals("0\n-1\n7\n", post("R 0 7\nR 3 3\nG 0\n"));
+        assertEquals(7, system.getElevator(0).getCurrentFloor());
+    }
+
+    @Test
+    void state_query_shall_list_every_car() throws IOException {
+        system.getElevator(0).addTargetFloor(4);
+        system.getElevator(0).goToNext();
+
+        HttpURLConnection connection = request("GET", null);
+        assertEquals(200, connection.getResponseCode());
+        assertEquals("4 IDLE 0\n0 IDLE 0\n", read(connection.getInputStream()));
+    }
+
+    @Test
+    void malformed_batch_shall_not_run_at_all() throws IOException {
+        for (String body : new String[]{"U 3\nX 4\n", "U 3\nT 1\n", "U 3\nG 2\n", "U 3 4\n", "U 99999999999\n"}) {
+            HttpURLConnection connection = request("POST", body);
+
+            assertEquals(400, connection.getResponseCode(), body);
+            assertTrue(read(connection.getErrorStream()).startsWith("line "), body);
+        }
+        assertFalse(system.getFloorControlPanel(3).isUpPressed());
+        assertEquals(405, request("PUT", "U 3\n").getResponseCode());
+    }
+
+    @Test
+    void failing_command_shall_answer_500_and_keep_the_server_running() throws IOException {
+        system.enableAging(60_000_000_000L, () -> {
+            throw new IllegalStateException("clock unavailable");
+        });
+
+        HttpURLConnection connection = request("POST", "T 0 4\nU 3\nG 0\n");
+        assertEquals(500, connection.getResponseCode());
+        assertTrue(read(connection.getErrorStream()).startsWith("command 2 U: "));
+        // 失败之前的命令已经生效，失败之后的不再执行
+        assertTrue(system.getElevator(0).hasTarget(4));
+        assertEquals(0, system.getElevator(0).getCurrentFloor());
+        assertEquals("0 IDLE 0\n", post("C 0\n"));
+    }
+
+    @Test
+    void load_client_shall_drive_the_server_concurrently() {
+        LiftLoadClient.Result result = LiftLoadClient.run(url, 10, 2, 4, 25, 16, 1);
+
+        assertEquals(100, result.requests);
+        assertEquals(1_600, result.presses);
+        assertTrue(result.acceptedPresses > 0);
+        assertTrue(result.acceptedPresses <= result.presses);
+        assertTrue(result.p99LatencyNanos >= result.p50LatencyNanos);
+    }
+}
@@ -0,0 +1,179 @@
+package com.sebsastian.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Closed-loop load generator for {@link LiftHttpServer} that needs nothing but the JDK.
+ * 每个线程在一条 keep-alive 连接上循环发送一批随机按键，末尾带一条随机电梯的 G 命令使呼叫不断被处理，
+ * 统计吞吐量与请求延迟。{@link #main} 在本进程内启动服务器，不依赖任何外部服务。
+ *
+ * @author sebastiangetts
+ */
+final class LiftLoadClient {
+
+    private LiftLoadClient() {
+    }
+
+    /**
+     * Throughput and latency of one load run.
+     */
+    static final class Result {
+
+        final long requests;
+        final long presses;
+        final long acceptedPresses;
+        final long elapsedNanos;
+        final long p50LatencyNanos;
+        final long p99LatencyNanos;
+
+        Result(long requests, long presses, long acceptedPresses, long elapsedNanos, long p50LatencyNanos,
+               long p99LatencyNanos) {
+            this.requests = requests;
+            this.presses = presses;
+            this.acceptedPresses = acceptedPresses;
+            this.elapsedNanos = elapsedNanos;
+            this.p50LatencyNanos = p50LatencyNanos;
+            this.p99LatencyNanos = p99LatencyNanos;
+        }
+
+        double pressesPerSecond() {
+            return presses * 1e9 / elapsedNanos;
+        }
+
+        double requestsPerSecond() {
+            return requests * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("requests=%d presses=%d accepted=%d %.0f presses/s %.0f requests/s"
+                            + " p50=%.2fms p99=%.2fms", requests, presses, acceptedPresses, pressesPerSecond(),
+                    requestsPerSecond(), p50LatencyNanos / 1e6, p99LatencyNanos / 1e6);
+        }
+    }
+
+    /**
+     * @param url      服务器的 {@link LiftHttpServer#PATH} 地址
+     * @param requests 每个线程发送的请求数
+     * @param batch    每个请求中的按键数
+     */
+    static Result run(URL url, int floors, int cars, int threads, int requests, int batch, long seed) {
+        LiftMetrics.LatencyHistogram latency = new LiftMetrics.LatencyHistogram();
+        LongAdder accepted = new LongAdder();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            CompletableFuture<?>[] runs = new CompletableFuture<?>[threads];
+            long start = System.nanoTime();
+            for (int t = 0; t < threads; t++) {
+                SplittableRandom random = new SplittableRandom(seed + t);
+                runs[t] = CompletableFuture.runAsync(() -> {
+                    for (int r = 0; r < requests; r++) {
+                        byte[] body = batch(random, floors, cars, batch);
+                        long sent = System.nanoTime();
+                        byte[] response = post(url, body);
+                        latency.record(System.nanoTime() - sent);
+                        accepted.add(countAccepted(response, batch));
+                    }
+                }, pool);
+            }
+            CompletableFuture.allOf(runs).join();
+            long elapsed = System.nanoTime() - start;
+            long total = (long) threads * requests;
+            return new Result(total, total * batch, accepted.sum(), elapsed, latency.percentile(0.5),
+                    latency.percentile(0.99));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static byte[] batch(SplittableRandom random, int floors, int cars, int batch) {
+        StringBuilder body = new StringBuilder(batch * 6 + 8);
+        for (int i = 0; i < batch; i++) {
+            int floor = random.nextInt(floors);
+            boolean up = floor == 0 || (floor < floors - 1 && random.nextBoolean());
+            body.append(up ? 'U' : 'D').append(floor).append('\n');
+        }
+        body.append('G').append(random.nextInt(cars)).append('\n');
+        return body.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * @return 前 presses 行中为1的行数
+     */
+    private static int countAccepted(byte[] response, int presses) {
+        int accepted = 0;
+        int line = 0;
+        for (int i = 0; i < response.length && line < presses; i++) {
+            if (response[i] == '\n') {
+                line++;
+            } else if (response[i] == '1' && (i == 0 || response[i - 1] == '\n')
+                    && i + 1 < response.length && response[i + 1] == '\n') {
+                accepted++;
+            }
+        }
+        return accepted;
+    }
+
+    /**
+     * 读完响应体使连接回到 keep-alive 连接池
+     */
+    private static byte[] post(URL url, byte[] body) {
+        try {
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body);
+            }
+            int status = connection.getResponseCode();
+            if (status != 200) {
+                throw new IOException("HTTP " + status + " from " + url);
+            }
+            try (InputStream in = connection.getInputStream()) {
+                byte[] buffer = new byte[Math.max(64, connection.getContentLength())];
+                int n = 0;
+                for (int read; (read = in.read(buffer, n, buffer.length - n)) > 0; ) {
+                    n += read;
+                }
+                return n == buffer.length ? buffer : Arrays.copyOf(buffer, n);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 参数依次为楼层数、电梯数、线程数、每线程请求数、每请求按键数，均可省略
+     */
+    public static void main(String[] args) throws IOException {
+        int floors = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        int cars = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+        int requests = args.length > 3 ? Integer.parseInt(args[3]) : 5_000;
+        int batch = args.length > 4 ? Integer.parseInt(args[4]) : 32;
+        // 本进程只有这一个服务器，关闭 Nagle 避免每个小响应等待延迟确认；命令行上已指定时保留
+        if (System.getProperty(LiftHttpServer.NODELAY_PROPERTY) == null) {
+            System.setProperty(LiftHttpServer.NODELAY_PROPERTY, "true");
+        }
+        MyLift.ElevatorSystem system = new MyLift.ElevatorSystem(floors, cars);
+        try (LiftHttpServer server = new LiftHttpServer(system, new InetSocketAddress("127.0.0.1", 0))) {
+            URL url = new URL("http://127.0.0.1:" + server.port() + LiftHttpServer.PATH);
+            // 预热
+            run(url, floors, cars, threads, Math.max(1, requests / 10), batch, 0);
+            System.out.println(run(url, floors, cars, threads, requests, batch, 1));
+        }
+    }
+}
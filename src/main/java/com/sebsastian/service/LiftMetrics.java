@@ -0,0 +1,264 @@
+package com.sebsastian.service;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free runtime metrics of one elevator system: hall-call wait, dispatch latency, per-car movement
+ * and rejected input. 热路径上只有原子自增，读取方按需计算分位数。
+ *
+ * @author sebastiangetts
+ */
+final class LiftMetrics implements LiftMetricsMXBean {
+
+    /**
+     * Receives periodic {@link Snapshot}s, e.g. to push them to a monitoring backend.
+     */
+    interface Exporter {
+
+        void export(Snapshot snapshot);
+    }
+
+    /**
+     * 从呼叫登记到被电梯认领的时间
+     */
+    final LatencyHistogram callWait = new LatencyHistogram();
+
+    /**
+     * 一次呼叫分配或整体重新分配的耗时
+     */
+    final LatencyHistogram dispatch = new LatencyHistogram();
+
+    private final LongAdder rejectedPresses = new LongAdder();
+    private final LongAdder rejectedTargets = new LongAdder();
+
+    private final AtomicLongArray stops;
+    private final AtomicLongArray travelFloors;
+    private final AtomicLongArray idleNanos;
+
+    LiftMetrics(int cars) {
+        this.stops = new AtomicLongArray(cars);
+        this.travelFloors = new AtomicLongArray(cars);
+        this.idleNanos = new AtomicLongArray(cars);
+    }
+
+    void recordRejectedPress() {
+        rejectedPresses.increment();
+    }
+
+    void recordRejectedTarget() {
+        rejectedTargets.increment();
+    }
+
+    void recordMove(int car, int floors) {
+        if (car >= 0 && car < stops.length()) {
+            stops.incrementAndGet(car);
+            travelFloors.addAndGet(car, floors);
+        }
+    }
+
+    void recordIdle(int car, long nanos) {
+        if (car >= 0 && car < idleNanos.length()) {
+            idleNanos.addAndGet(car, nanos);
+        }
+    }
+
+    Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    void exportTo(Exporter exporter) {
+        exporter.export(snapshot());
+    }
+
+    ScheduledFuture<?> scheduleExport(Exporter exporter, ScheduledExecutorService executor, long period, TimeUnit unit) {
+        return executor.scheduleAtFixedRate(() -> exportTo(exporter), period, period, unit);
+    }
+
+    /**
+     * 注册到平台 MBeanServer，名称为 com.sebsastian.service:type=LiftMetrics,name=&lt;name&gt;。
+     * 同一进程中的每套电梯系统需使用不同的名称，不再使用时由调用方注销
+     *
+     * @throws InstanceAlreadyExistsException 该名称已被注册，已注册的MBean保持不变
+     */
+    ObjectName registerMBean(String name) throws JMException {
+        ObjectName objectName = new ObjectName("com.sebsastian.service:type=LiftMetrics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer()
+                .registerMBean(new StandardMBean(this, LiftMetricsMXBean.class, true), objectName);
+        return objectName;
+    }
+
+    @Override
+    public long getCallWaitCount() {
+        return callWait.count();
+    }
+
+    @Override
+    public double getCallWaitP50Millis() {
+        return callWait.percentile(0.5) / 1e6;
+    }
+
+    @Override
+    public double getCallWaitP99Millis() {
+        return callWait.percentile(0.99) / 1e6;
+    }
+
+    @Override
+    public double getCallWaitP999Millis() {
+        return callWait.percentile(0.999) / 1e6;
+    }
+
+    @Override
+    public double getDispatchP50Micros() {
+        return dispatch.percentile(0.5) / 1e3;
+    }
+
+    @Override
+    public double getDispatchP99Micros() {
+        return dispatch.percentile(0.99) / 1e3;
+    }
+
+    @Override
+    public long getRejectedPresses() {
+        return rejectedPresses.sum();
+    }
+
+    @Override
+    public long getRejectedTargets() {
+        return rejectedTargets.sum();
+    }
+
+    @Override
+    public long[] getStopsPerCar() {
+        return toArray(stops);
+    }
+
+    @Override
+    public long[] getTravelFloorsPerCar() {
+        return toArray(travelFloors);
+    }
+
+    @Override
+    public long[] getIdleMillisPerCar() {
+        long[] millis = toArray(idleNanos);
+        for (int i = 0; i < millis.length; i++) {
+            millis[i] /= 1_000_000;
+        }
+        return millis;
+    }
+
+    private static long[] toArray(AtomicLongArray values) {
+        long[] result = new long[values.length()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = values.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Point-in-time copy of all metrics, handed to {@link Exporter}s.
+     */
+    static final class Snapshot {
+
+        final long callWaitCount;
+        final double callWaitP50Millis;
+        final double callWaitP99Millis;
+        final double callWaitP999Millis;
+        final double dispatchP50Micros;
+        final double dispatchP99Micros;
+        final long rejectedPresses;
+        final long rejectedTargets;
+        final long[] stopsPerCar;
+        final long[] travelFloorsPerCar;
+        final long[] idleMillisPerCar;
+
+        private Snapshot(LiftMetrics metrics) {
+            this.callWaitCount = metrics.getCallWaitCount();
+            this.callWaitP50Millis = metrics.getCallWaitP50Millis();
+            this.callWaitP99Millis = metrics.getCallWaitP99Millis();
+            this.callWaitP999Millis = metrics.getCallWaitP999Millis();
+            this.dispatchP50Micros = metrics.getDispatchP50Micros();
+            this.dispatchP99Micros = metrics.getDispatchP99Micros();
+            this.rejectedPresses = metrics.getRejectedPresses();
+            this.rejectedTargets = metrics.getRejectedTargets();
+            this.stopsPerCar = metrics.getStopsPerCar();
+            this.travelFloorsPerCar = metrics.getTravelFloorsPerCar();
+            this.idleMillisPerCar = metrics.getIdleMillisPerCar();
+        }
+    }
+
+    /**
+     * Log-linear histogram of non-negative nanosecond values: each power of two is split into
+     * {@value #SUB_BUCKETS} linear buckets, so a reported percentile is within 1/{@value #SUB_BUCKETS} of the true value.
+     */
+    static final class LatencyHistogram {
+
+        static final int SUB_BUCKETS = 16;
+        private static final int SUB_BITS = 4;
+
+        private static final int BUCKETS = 64 * SUB_BUCKETS;
+
+        /**
+         * 每个2的幂一页，只分配实际出现过的数量级，空直方图几乎不占内存
+         */
+        private final MyLift.LazyLongArray buckets = new MyLift.LazyLongArray(BUCKETS, SUB_BITS);
+
+        void record(long nanos) {
+            buckets.incrementAndGet(index(Math.max(0, nanos)));
+        }
+
+        long count() {
+            long count = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                count += buckets.get(i);
+            }
+            return count;
+        }
+
+        /**
+         * @return 分位数所在桶的上界，没有数据时返回0
+         */
+        long percentile(double p) {
+            long count = count();
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(p * count));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    return upperBound(i);
+                }
+            }
+            return upperBound(BUCKETS - 1);
+        }
+
+        static int index(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int magnitude = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >>> (magnitude - SUB_BITS)) & (SUB_BUCKETS - 1);
+            return (magnitude - SUB_BITS + 1) * SUB_BUCKETS + sub;
+        }
+
+        static long upperBound(int index) {
+            if (index < SUB_BUCKETS) {
+                return index;
+            }
+            int magnitude = index / SUB_BUCKETS + SUB_BITS - 1;
+            long sub = index % SUB_BUCKETS;
+            long width = 1L << (magnitude - SUB_BITS);
+            return (1L << magnitude) + (sub + 1) * width - 1;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.sebsastian.service;
+
+/**
+ * JMX view of {@link LiftMetrics}.
+ *
+ * @author sebastiangetts
+ */
+public interface LiftMetricsMXBean {
+
+    long getCallWaitCount();
+
+    double getCallWaitP50Millis();
+
+    double getCallWaitP99Millis();
+
+    double getCallWaitP999Millis();
+
+    double getDispatchP50Micros();
+
+    double getDispatchP99Micros();
+
+    long getRejectedPresses();
+
+    long getRejectedTargets();
+
+    long[] getStopsPerCar();
+
+    long[] getTravelFloorsPerCar();
+
+    long[] getIdleMillisPerCar();
+}
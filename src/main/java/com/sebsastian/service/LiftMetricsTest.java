@@ -0,0 +1,97 @@
+package com.sebsastian.service;
+
+import org.junit.jupiter.api.Test;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author sebastiangetts
+ */
+class LiftMetricsTest {
+
+    @Test
+    void histogram_percentiles_shall_be_within_bucket_precision() {
+        LiftMetrics.LatencyHistogram histogram = new LiftMetrics.LatencyHistogram();
+        for (long v = 1; v <= 100_000; v++) {
+            histogram.record(v * 1_000);
+        }
+
+        assertEquals(100_000, histogram.count());
+        assertEquals(50_000_000, histogram.percentile(0.5), 50_000_000 / LiftMetrics.LatencyHistogram.SUB_BUCKETS);
+        assertEquals(99_000_000, histogram.percentile(0.99), 99_000_000 / LiftMetrics.LatencyHistogram.SUB_BUCKETS);
+        assertEquals(99_900_000, histogram.percentile(0.999), 99_900_000 / LiftMetrics.LatencyHistogram.SUB_BUCKETS);
+    }
+
+    @Test
+    void histogram_bucket_bounds_shall_contain_their_values() {
+        for (long v : new long[]{0, 1, 15, 16, 17, 31, 32, 1_000, 123_456_789, Long.MAX_VALUE / 4}) {
+            int index = LiftMetrics.LatencyHistogram.index(v);
+            assertTrue(LiftMetrics.LatencyHistogram.upperBound(index) >= v, String.valueOf(v));
+            assertTrue(index == 0 || LiftMetrics.LatencyHistogram.upperBound(index - 1) < v, String.valueOf(v));
+        }
+    }
+
+    @Test
+    void system_shall_record_waits_moves_and_rejections() {
+        MyLift.ElevatorSystem system = MyLift.ElevatorSystem.builder(10, 2).policy(DispatchPolicy.Standard.ETA).build();
+        MyLift.Elevator elevator0 = system.getElevator(0);
+
+        system.getFloorControlPanel(5).pressUp();
+        system.getFloorControlPanel(5).pressUp();
+        system.getFloorControlPanel(0).pressDown();
+        elevator0.addTargetFloor(0);
+        elevator0.addTargetFloor(10);
+        elevator0.goToNext();
+        elevator0.addTargetFloor(8);
+        elevator0.goToNext();
+
+        LiftMetrics.Snapshot snapshot = system.getMetrics().snapshot();
+        assertEquals(1, snapshot.callWaitCount);
+        assertEquals(2, snapshot.rejectedPresses);
+        assertEquals(2, snapshot.rejectedTargets);
+        assertArrayEquals(new long[]{2, 0}, snapshot.stopsPerCar);
+        assertArrayEquals(new long[]{8, 0}, snapshot.travelFloorsPerCar);
+        assertTrue(system.getMetrics().dispatch.count() > 0);
+    }
+
+    @Test
+    void metrics_shall_be_readable_over_jmx_and_exporter() throws Exception {
+        MyLift.ElevatorSystem system = new MyLift.ElevatorSystem(10, 1);
+        system.getFloorControlPanel(0).pressDown();
+        ObjectName name = system.getMetrics().registerMBean("test");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            assertEquals(1L, server.getAttribute(name, "RejectedPresses"));
+            assertArrayEquals(new long[]{0}, (long[]) server.getAttribute(name, "StopsPerCar"));
+        } finally {
+            server.unregisterMBean(name);
+        }
+
+        assertFalse(server.isRegistered(name));
+
+        AtomicReference<LiftMetrics.Snapshot> exported = new AtomicReference<>();
+        system.getMetrics().exportTo(exported::set);
+        assertEquals(1, exported.get().rejectedPresses);
+    }
+
+    @Test
+    void registering_a_taken_name_shall_leave_the_existing_mbean_in_place() throws Exception {
+        MyLift.ElevatorSystem first = new MyLift.ElevatorSystem(10, 1);
+        MyLift.ElevatorSystem second = new MyLift.ElevatorSystem(10, 1);
+        first.getFloorControlPanel(0).pressDown();
+        ObjectName name = first.getMetrics().registerMBean("shared");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            assertThrows(InstanceAlreadyExistsException.class, () -> second.getMetrics().registerMBean("shared"));
+            assertEquals(1L, server.getAttribute(name, "RejectedPresses"));
+        } finally {
+            server.unregisterMBean(name);
+        }
+    }
+}
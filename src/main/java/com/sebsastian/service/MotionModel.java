@@ -0,0 +1,94 @@
+package com.sebsastian.service;
+
+/**
+ * Kinematics of a car: trapezoidal speed profile between stops plus a fixed door dwell at each stop.
+ * 短距离运行达不到额定速度（三角形速度曲线），长距离的直驶段按额定速度运行，因此远距离运行的平均每层耗时更短。
+ * 所有时间单位为毫秒。
+ *
+ * @author sebastiangetts
+ */
+final class MotionModel {
+
+    private final double floorHeight;
+    private final double speed;
+    private final double acceleration;
+    private final long doorMillis;
+
+    /**
+     * @param floorHeight  层高（米）
+     * @param speed        额定速度（米/秒）
+     * @param acceleration 加减速度（米/秒²），{@link Double#POSITIVE_INFINITY} 表示瞬间达到额定速度
+     * @param doorMillis   每次停靠开关门及上下客的时间
+     */
+    MotionModel(double floorHeight, double speed, double acceleration, long doorMillis) {
+        if (!(floorHeight > 0) || !(speed > 0) || !(acceleration > 0) || doorMillis < 0) {
+            throw new IllegalArgumentException("floor height, speed and acceleration must be positive");
+        }
+        this.floorHeight = floorHeight;
+        this.speed = speed;
+        this.acceleration = acceleration;
+        this.doorMillis = doorMillis;
+    }
+
+    /**
+     * 常见的办公楼参数：层高3.5米，额定速度2.5米/秒，加速度1米/秒²，停靠8秒
+     */
+    static MotionModel standard() {
+        return new MotionModel(3.5, 2.5, 1.0, 8_000);
+    }
+
+    /**
+     * 每层固定耗时、没有加减速的模型
+     */
+    static MotionModel linear(long floorMillis, long doorMillis) {
+        return new MotionModel(1, 1000d / floorMillis, Double.POSITIVE_INFINITY, doorMillis);
+    }
+
+    /**
+     * @return 一次不停站运行 floors 层所需的时间
+     */
+    long travelMillis(int floors) {
+        if (floors <= 0) {
+            return 0;
+        }
+        double distance = floors * floorHeight;
+        double seconds;
+        if (distance >= speed * speed / acceleration) {
+            // 加速、匀速、减速
+            seconds = distance / speed + speed / acceleration;
+        } else {
+            // 还没到额定速度就要开始减速
+            seconds = 2 * Math.sqrt(distance / acceleration);
+        }
+        return Math.round(seconds * 1000);
+    }
+
+    long doorMillis() {
+        return doorMillis;
+    }
+
+    /**
+     * @return 按额定速度经过一层的时间
+     */
+    long floorMillis() {
+        return Math.round(floorHeight / speed * 1000);
+    }
+
+    /**
+     * @return 途中多停一站带来的额外时间：开关门加上一次减速再加速的损失
+     */
+    long stopMillis() {
+        return doorMillis + Math.round(speed / acceleration * 1000);
+    }
+
+    /**
+     * @return 0 到 floors - 1 层运行时间的查找表，供调度器在热路径上使用
+     */
+    int[] travelTable(int floors) {
+        int[] table = new int[Math.max(floors, 1)];
+        for (int d = 1; d < table.length; d++) {
+            table[d] = (int) Math.min(Integer.MAX_VALUE, travelMillis(d));
+        }
+        return table;
+    }
+}
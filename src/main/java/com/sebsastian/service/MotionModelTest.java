@@ -0,0 +1,92 @@
+package com.sebsastian.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author sebastiangetts
+ */
+class MotionModelTest {
+
+    // 层高3.5米，2.5米/秒，1米/秒²：6.25米以内达不到额定速度
+    private final MotionModel standard = MotionModel.standard();
+
+    @Test
+    void short_run_shall_follow_triangular_profile() {
+        assertEquals(0, standard.travelMillis(0));
+        assertEquals(3742, standard.travelMillis(1));
+    }
+
+    @Test
+    void long_run_shall_cruise_at_rated_speed() {
+        assertEquals(5300, standard.travelMillis(2));
+        assertEquals(16500, standard.travelMillis(10));
+        // 直驶越远，平均每层越快
+        assertTrue(standard.travelMillis(40) / 40 < standard.travelMillis(4) / 4);
+        assertEquals(1400, standard.floorMillis());
+        assertEquals(10500, standard.stopMillis());
+    }
+
+    @Test
+    void linear_model_shall_charge_a_fixed_time_per_floor() {
+        MotionModel linear = MotionModel.linear(1500, 10000);
+
+        assertEquals(15000, linear.travelMillis(10));
+        assertEquals(10000, linear.stopMillis());
+        assertArrayEquals(new int[]{0, 1500, 3000}, linear.travelTable(3));
+    }
+
+    @Test
+    void go_to_next_shall_return_arrival_and_wait_for_door_dwell() {
+        MyLift.ElevatorSystem system = MyLift.ElevatorSystem.builder(20, 1).motion(standard).build();
+        MyLift.Elevator elevator = system.getElevator(0);
+        elevator.addTargetFloor(5);
+
+        assertEquals(9500, elevator.goToNext(0));
+        assertEquals(17500, elevator.getReadyAt());
+
+        elevator.addTargetFloor(6);
+        // 门还没关好，从停靠结束时出发
+        assertEquals(17500 + 3742, elevator.goToNext(10_000));
+        assertEquals(40_000, elevator.goToNext(40_000));
+    }
+
+    @Test
+    void eta_shall_include_queued_stops() {
+        MyLift.ElevatorSystem system = MyLift.ElevatorSystem.builder(20, 1).motion(standard).build();
+        MyLift.Elevator elevator = system.getElevator(0);
+
+        assertEquals(1000 + 16500, elevator.etaMillis(10, true, 1000));
+
+        elevator.addTargetFloor(4);
+        assertEquals(16500 + 10500, elevator.etaMillis(10, true, 0));
+        assertEquals(travel(4), elevator.etaMillis(4, true, 0));
+    }
+
+    @Test
+    void call_eta_shall_come_from_assigned_car() {
+        MyLift.ElevatorSystem system = MyLift.ElevatorSystem.builder(30, 2).motion(standard)
+                .policy(DispatchPolicy.Standard.ETA).build();
+        system.getElevator(1).addTargetFloor(20);
+        system.step();
+        system.getFloorControlPanel(18).pressDown();
+
+        // 电梯1停在20层，离18层最近
+        int owner = 1;
+        assertEquals(system.getElevator(owner).etaMillis(18, false, 0), system.callEtaMillis(18, false, 0));
+        assertEquals(-1, system.callEtaMillis(5, true, 0));
+    }
+
+    @Test
+    void system_without_motion_model_shall_reject_timed_calls() {
+        MyLift.ElevatorSystem system = new MyLift.ElevatorSystem(10, 1);
+
+        assertThrows(IllegalStateException.class, () -> system.getElevator(0).goToNext(0));
+        assertThrows(IllegalStateException.class, () -> system.getElevator(0).etaMillis(3, true, 0));
+    }
+
+    private long travel(int floors) {
+        return standard.travelMillis(floors);
+    }
+}
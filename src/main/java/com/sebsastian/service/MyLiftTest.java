@@ -416,4 +416,414 @@ class MyLiftTest {
         assertFalse(panel5.isDownPressed());
         assertFalse(panel7.isUpPressed());
     }
+
+    @Test
+    void sweep_targets_in_look_order() {
+        MyLift.ElevatorSystem system = new MyLift.ElevatorSystem(10, 1);
+        MyLift.Elevator elevator0 = system.getElevator(0);
+
+        elevator0.addTargetFloor(9);
+        elevator0.addTargetFloor(2);
+        elevator0.addTargetFloor(8);
+        elevator0.goToNext();
+        assertEquals(2, elevator0.getCurrentFloor());
+        elevator0.goToNext();
+        assertEquals(8, elevator0.getCurrentFloor());
+        elevator0.goToNext();
+        assertEquals(9, elevator0.getCurrentFloor());
+        assertTrue(elevator0.getTargetFloors().isEmpty());
+    }
+
+    @Test
+    void reverse_only_when_no_target_ahead() {
+        MyLift.ElevatorSystem system = new MyLift.ElevatorSystem(10, 1);
+        MyLift.Elevator elevator0 = system.getElevator(0);
+
+        elevator0.addTargetFloor(5);
+        elevator0.addTargetFloor(7);
+        elevator0.goToNext();
+        elevator0.addTargetFloor(4);
+        elevator0.addTargetFloor(9);
+        elevator0.goToNext();
+        assertEquals(7, elevator0.getCurrentFloor());
+        elevator0.goToNext();
+        assertEquals(9, elevator0.getCurrentFloor());
+        elevator0.goToNext();
+        assertEquals(4, elevator0.getCurrentFloor());
+    }
+
+    @Test
+    void duplicate_target_floor_shall_collapse() {
+        MyLift.ElevatorSystem system = new MyLift.ElevatorSystem(10, 1);
+        MyLift.Elevator elevator0 = system.getElevator(0);
+
+        assertTrue(elevator0.addTargetFloor(5));
+        assertFalse(elevator0.addTargetFloor(5));
+        elevator0.goToNext();
+        elevator0.goToNext();
+
+        assertEquals(5, elevator0.getCurrentFloor());
+        assertTrue(elevator0.getTargetFloors().isEmpty());
+    }
+
+    @Test
+    void target_floors_shall_not_be_shared_between_elevators() {
+        MyLift.ElevatorSystem system = new MyLift.ElevatorSystem(10, 2);
+        MyLift.Elevator elevator0 = system.getElevator(0);
+        MyLift.Elevator elevator1 = system.getElevator(1);
+
+        elevator0.addTargetFloor(6);
+        elevator1.goToNext();
+
+        assertEquals(0, elevator1.getCurrentFloor());
+        assertTrue(elevator1.getTargetFloors().isEmpty());
+        assertTrue(elevator0.getTargetFloors().contains(6));
+    }
+
+    @Test
+    void pickup_nearest_calls_across_200_floors() {
+        MyLift.ElevatorSystem system = new MyLift.ElevatorSystem(256, 1);
+        MyLift.Elevator elevator0 = system.getElevator(0);
+
+        elevator0.addTargetFloor(130);
+        elevator0.goToNext();
+        system.getFloorControlPanel(63).pressUp();
+        system.getFloorControlPanel(200).pressUp();
+        elevator0.goToNext();
+        assertEquals(63, elevator0.getCurrentFloor());
+        elevator0.goToNext();
+        assertEquals(200, elevator0.getCurrentFloor());
+        assertFalse(system.getFloorControlPanel(63).isUpPressed());
+        assertFalse(system.getFloorControlPanel(200).isUpPressed());
+    }
+
+    @Test
+    void pickup_downward_call_below_word_boundary() {
+        MyLift.ElevatorSystem system = new MyLift.ElevatorSystem(256, 1);
+        MyLift.Elevator elevator0 = system.getElevator(0);
+        MyLift.FloorControlPanel panel64 = system.getFloorControlPanel(64);
+
+        elevator0.addTargetFloor(255);
+        elevator0.goToNext();
+        elevator0.addTargetFloor(0);
+        panel64.pressDown();
+        system.getFloorControlPanel(63).pressUp();
+        elevator0.goToNext();
+
+        assertEquals(64, elevator0.getCurrentFloor());
+        assertFalse(panel64.isDownPressed());
+        assertTrue(system.getFloorControlPanel(63).isUpPressed());
+    }
+
+    @Test
+    void hall_call_goes_to_nearest_idle_elevator() {
+        MyLift.ElevatorSystem system = MyLift.ElevatorSystem.builder(10, 2).policy(DispatchPolicy.Standard.ETA).build();
+        MyLift.Elevator elevator0 = system.getElevator(0);
+        MyLift.Elevator elevator1 = system.getElevator(1);
+        MyLift.FloorControlPanel panel8 = system.getFloorControlPanel(8);
+
+        elevator1.addTargetFloor(9);
+        elevator1.goToNext();
+        panel8.pressUp();
+        elevator0.goToNext();
+        elevator1.goToNext();
+
+        assertEquals(0, elevator0.getCurrentFloor());
+        assertEquals(8, elevator1.getCurrentFloor());
+        assertFalse(panel8.isUpPressed());
+    }
+
+    @Test
+    void opposite_direction_call_goes_to_idle_elevator() {
+        MyLift.ElevatorSystem system = new MyLift.ElevatorSystem(10, 2);
+        MyLift.Elevator elevator0 = system.getElevator(0);
+        MyLift.Elevator elevator1 = system.getElevator(1);
+        MyLift.FloorControlPanel panel5 = system.getFloorControlPanel(5);
+
+        elevator0.addTargetFloor(2);
+        elevator0.addTargetFloor(9);
+        elevator0.goToNext();
+        panel5.pressDown();
+        elevator0.goToNext();
+        elevator1.goToNext();
+
+        assertEquals(9, elevator0.getCurrentFloor());
+        assertEquals(5, elevator1.getCurrentFloor());
+        assertFalse(panel5.isDownPressed());
+    }
+
+    @Test
+    void rebalance_moves_call_to_closer_elevator() {
+        MyLift.ElevatorSystem system = new MyLift.ElevatorSystem(10, 2);
+        MyLift.Elevator elevator0 = system.getElevator(0);
+        MyLift.Elevator elevator1 = system.getElevator(1);
+        MyLift.FloorControlPanel panel8 = system.getFloorControlPanel(8);
+
+        elevator1.addTargetFloor(3);
+        elevator1.goToNext();
+        panel8.pressUp();
+        elevator0.addTargetFloor(7);
+        elevator0.goToNext();
+        system.rebalance();
+        elevator0.goToNext();
+
+        assertEquals(8, elevator0.getCurrentFloor());
+        assertFalse(panel8.isUpPressed());
+        elevator1.goToNext();
+        assertEquals(3, elevator1.getCurrentFloor());
+    }
+
+    @Test
+    void rebalance_shall_keep_a_call_on_an_equally_good_elevator() {
+        MyLift.ElevatorSystem system = MyLift.ElevatorSystem.builder(10, 2)
+                .policy(DispatchPolicy.Standard.ETA).build();
+        system.getFloorControlPanel(5).pressUp();
+
+        system.rebalance();
+        system.getElevator(1).goToNext();
+        system.getElevator(0).goToNext();
+
+        assertEquals(0, system.getElevator(1).getCurrentFloor());
+        assertEquals(5, system.getElevator(0).getCurrentFloor());
+    }
+
+    @Test
+    void car_stopping_at_a_call_shall_take_it_over_from_its_owner() {
+        MyLift.ElevatorSystem system = MyLift.ElevatorSystem.builder(20, 2)
+                .policy(DispatchPolicy.Standard.ETA).build();
+        MyLift.Elevator elevator0 = system.getElevator(0);
+        MyLift.Elevator elevator1 = system.getElevator(1);
+        MyLift.FloorControlPanel panel12 = system.getFloorControlPanel(12);
+        elevator1.addTargetFloor(10);
+        elevator1.goToNext();
+        // 分配给离得近的1号电梯
+        panel12.pressUp();
+
+        elevator0.addTargetFloor(12);
+        elevator0.addTargetFloor(15);
+        elevator0.goToNext();
+
+        assertEquals(12, elevator0.getCurrentFloor());
+        assertFalse(panel12.isUpPressed());
+        elevator1.goToNext();
+        assertEquals(10, elevator1.getCurrentFloor());
+    }
+
+    @Test
+    void collective_step_shall_give_a_call_to_the_first_car_to_reach_it() {
+        MyLift.ElevatorSystem system = MyLift.ElevatorSystem.builder(10, 2)
+                .policy(DispatchPolicy.Standard.COLLECTIVE).build();
+        MyLift.Elevator elevator1 = system.getElevator(1);
+        elevator1.addTargetFloor(6);
+        elevator1.goToNext();
+        system.getFloorControlPanel(4).pressUp();
+
+        // 0号电梯先推进也不能抢走离1号电梯更近的呼叫
+        system.step();
+
+        assertEquals(0, system.getElevator(0).getCurrentFloor());
+        assertEquals(4, elevator1.getCurrentFloor());
+        assertFalse(system.getFloorControlPanel(4).isUpPressed());
+        // 这一步的分配撤掉后恢复先到先得
+        system.getFloorControlPanel(2).pressUp();
+        system.getElevator(0).goToNext();
+        assertEquals(2, system.getElevator(0).getCurrentFloor());
+    }
+
+    @Test
+    void target_floors_view_shall_be_live_and_read_only() {
+        MyLift.ElevatorSystem system = new MyLift.ElevatorSystem(10, 1);
+        MyLift.Elevator elevator0 = system.getElevator(0);
+
+        Set<Integer> targetFloors = elevator0.getTargetFloors();
+        elevator0.addTargetFloor(4);
+        elevator0.addTargetFloor(2);
+
+        assertSame(targetFloors, elevator0.getTargetFloors());
+        assertEquals(2, targetFloors.size());
+        assertEquals(2, targetFloors.iterator().next());
+        assertThrows(UnsupportedOperationException.class, () -> targetFloors.add(7));
+        elevator0.goToNext();
+        assertFalse(targetFloors.contains(2));
+        assertTrue(targetFloors.contains(4));
+    }
+
+    @Test
+    void copy_targets_into_caller_array() {
+        MyLift.ElevatorSystem system = new MyLift.ElevatorSystem(10, 1);
+        MyLift.Elevator elevator0 = system.getElevator(0);
+
+        elevator0.addTargetFloor(9);
+        elevator0.addTargetFloor(3);
+        elevator0.addTargetFloor(6);
+        int[] floors = new int[2];
+
+        assertEquals(3, elevator0.targetCount());
+        assertTrue(elevator0.hasTarget(6));
+        assertFalse(elevator0.hasTarget(10));
+        assertEquals(2, elevator0.copyTargets(floors));
+        assertArrayEquals(new int[]{3, 6}, floors);
+    }
+
+    @Test
+    void version_shall_change_only_when_state_changes() {
+        MyLift.ElevatorSystem system = new MyLift.ElevatorSystem(10, 1);
+        MyLift.Elevator elevator0 = system.getElevator(0);
+
+        long initial = elevator0.getVersion();
+        elevator0.goToNext();
+        assertEquals(initial, elevator0.getVersion());
+        elevator0.addTargetFloor(5);
+        long added = elevator0.getVersion();
+        assertNotEquals(initial, added);
+        elevator0.addTargetFloor(5);
+        assertEquals(added, elevator0.getVersion());
+        elevator0.goToNext();
+        assertNotEquals(added, elevator0.getVersion());
+    }
+
+    @Test
+    void step_advances_every_elevator() {
+        MyLift.ElevatorSystem system = new MyLift.ElevatorSystem(10, 2);
+        MyLift.Elevator elevator0 = system.getElevator(0);
+        MyLift.Elevator elevator1 = system.getElevator(1);
+
+        elevator0.addTargetFloor(3);
+        elevator1.addTargetFloor(6);
+        system.step();
+
+        assertEquals(3, elevator0.getCurrentFloor());
+        assertEquals(6, elevator1.getCurrentFloor());
+    }
+
+    @Test
+    void batched_presses_are_assigned_from_one_snapshot() {
+        MyLift.ElevatorSystem system = MyLift.ElevatorSystem.builder(10, 2).policy(DispatchPolicy.Standard.ETA).build();
+        MyLift.Elevator elevator0 = system.getElevator(0);
+        MyLift.Elevator elevator1 = system.getElevator(1);
+
+        system.addTargetFloors(1, new int[]{9, 9});
+        system.step();
+        assertEquals(2, system.pressUp(new int[]{1, 2, 9}));
+        assertEquals(1, system.pressDown(new int[]{8, 0}));
+        system.step(2);
+
+        assertEquals(2, elevator0.getCurrentFloor());
+        assertEquals(8, elevator1.getCurrentFloor());
+        assertFalse(system.getFloorControlPanel(1).isUpPressed());
+        assertFalse(system.getFloorControlPanel(2).isUpPressed());
+        assertFalse(system.getFloorControlPanel(8).isDownPressed());
+    }
+
+    @Test
+    void call_pressed_again_after_being_served_is_still_served() {
+        MyLift.ElevatorSystem system = new MyLift.ElevatorSystem(10, 2);
+        MyLift.Elevator elevator0 = system.getElevator(0);
+        MyLift.Elevator elevator1 = system.getElevator(1);
+        MyLift.FloorControlPanel panel5 = system.getFloorControlPanel(5);
+
+        panel5.pressUp();
+        elevator1.addTargetFloor(5);
+        elevator1.goToNext();
+        elevator0.goToNext();
+        assertFalse(panel5.isUpPressed());
+        system.pressUp(new int[]{5});
+        system.step(3);
+
+        assertFalse(panel5.isUpPressed());
+    }
+
+    @Test
+    void boarding_is_limited_by_capacity() {
+        MyLift.Elevator elevator = MyLift.ElevatorSystem.builder(10, 1).capacity(10).build().getElevator(0);
+
+        assertEquals(7, elevator.board(7));
+        assertEquals(3, elevator.board(7));
+        assertEquals(0, elevator.board(1));
+        assertEquals(10, elevator.getLoad());
+        elevator.alight(4);
+        assertEquals(6, elevator.getLoad());
+        elevator.alight(100);
+        assertEquals(0, elevator.getLoad());
+    }
+
+    @Test
+    void nearly_full_car_skips_en_route_pickups() {
+        MyLift.ElevatorSystem system = MyLift.ElevatorSystem.builder(20, 1).capacity(10).build();
+        MyLift.Elevator elevator = system.getElevator(0);
+        MyLift.FloorControlPanel panel5 = system.getFloorControlPanel(5);
+
+        elevator.board(8);
+        elevator.addTargetFloor(15);
+        panel5.pressUp();
+        assertTrue(elevator.isBypassing());
+        system.step();
+
+        assertEquals(15, elevator.getCurrentFloor());
+        assertTrue(panel5.isUpPressed());
+
+        elevator.alight(8);
+        system.step();
+        assertEquals(5, elevator.getCurrentFloor());
+        assertFalse(panel5.isUpPressed());
+    }
+
+    @Test
+    void call_ahead_of_full_car_is_routed_to_car_with_room() {
+        MyLift.ElevatorSystem system = MyLift.ElevatorSystem.builder(20, 2).capacity(10).build();
+        MyLift.Elevator elevator0 = system.getElevator(0);
+        MyLift.Elevator elevator1 = system.getElevator(1);
+
+        elevator0.board(9);
+        system.addTargetFloors(0, new int[]{15, 19});
+        system.step();
+        system.getFloorControlPanel(16).pressUp();
+        system.step();
+
+        assertEquals(19, elevator0.getCurrentFloor());
+        assertEquals(16, elevator1.getCurrentFloor());
+        assertFalse(system.getFloorControlPanel(16).isUpPressed());
+    }
+
+    @Test
+    void panels_of_a_very_tall_building_are_created_on_demand() {
+        MyLift.ElevatorSystem system = new MyLift.ElevatorSystem(100_000, 4);
+        MyLift.FloorControlPanel panel = system.getFloorControlPanel(99_998);
+
+        assertTrue(panel.pressUp());
+        assertTrue(system.getFloorControlPanel(99_998).isUpPressed());
+        assertEquals(panel, system.getFloorControlPanel(99_998));
+        assertNotEquals(panel, system.getFloorControlPanel(99_997));
+        assertNotEquals(panel, new MyLift.ElevatorSystem(100_000, 4).getFloorControlPanel(99_998));
+        assertThrows(IndexOutOfBoundsException.class, () -> system.getFloorControlPanel(100_000));
+        assertThrows(IndexOutOfBoundsException.class, () -> system.getFloorControlPanel(-1));
+
+        system.step();
+        int arrived = 0;
+        for (int e = 0; e < system.elevatorCount(); e++) {
+            arrived += system.getElevator(e).getCurrentFloor() == 99_998 ? 1 : 0;
+        }
+        assertEquals(1, arrived);
+        assertFalse(panel.isUpPressed());
+    }
+
+    @Test
+    void lazy_array_allocates_pages_on_first_non_zero_write() {
+        MyLift.LazyLongArray array = new MyLift.LazyLongArray(100_000);
+
+        assertEquals(0, array.get(99_999));
+        array.set(5, 0);
+        assertEquals(0, array.getAndSet(6, 0));
+        assertTrue(array.compareAndSet(7, 0, 0));
+        assertFalse(array.compareAndSet(8, 1, 2));
+        assertEquals(0, array.allocatedPages());
+
+        assertTrue(array.compareAndSet(50_000, 0, 3));
+        assertEquals(3, array.getAndSet(50_000, 4));
+        array.set(99_999, 9);
+        assertEquals(1, array.incrementAndGet(1));
+        assertEquals(4, array.get(50_000));
+        assertEquals(9, array.get(99_999));
+        assertEquals(3, array.allocatedPages());
+    }
 }
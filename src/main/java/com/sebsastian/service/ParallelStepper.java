@@ -0,0 +1,119 @@
+package com.sebsastian.service;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Advances elevator systems on a fork-join pool.
+ * 每一步先在调用线程上统一分配呼叫，再把电梯切分成若干段并行推进；多个系统之间互不相干，整体并行。
+ * 推进期间电梯只认领这一步分配给自己的呼叫（{@link DispatchPolicy.Standard#COLLECTIVE} 也在这一步里分配），
+ * 接管别的电梯的呼叫推迟到推进之后按电梯编号进行，见 {@link MyLift.ElevatorSystem#beginStep()}；
+ * 因此结果与线程数及调度顺序无关，同一种子的运行在任意线程数下都相同。
+ *
+ * @author sebastiangetts
+ */
+final class ParallelStepper {
+
+    /**
+     * 每个叶子任务推进的电梯数，电梯太少时拆分反而得不偿失
+     */
+    static final int CARS_PER_TASK = 16;
+
+    private final ForkJoinPool pool;
+
+    ParallelStepper(int parallelism) {
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    int parallelism() {
+        return pool.getParallelism();
+    }
+
+    /**
+     * 与 {@link MyLift.ElevatorSystem#step()} 效果相同，电梯并行推进
+     */
+    void step(MyLift.ElevatorSystem system) {
+        system.beginStep();
+        pool.invoke(new CarRange(system, 0, system.elevatorCount()));
+        system.endStep();
+    }
+
+    void step(MyLift.ElevatorSystem system, int ticks) {
+        for (int t = 0; t < ticks; t++) {
+            step(system);
+        }
+    }
+
+    /**
+     * 多个互相独立的系统同时推进指定步数
+     */
+    void step(List<MyLift.ElevatorSystem> systems, int ticks) {
+        pool.invoke(new SystemRange(systems, 0, systems.size(), ticks));
+    }
+
+    void shutdown() {
+        pool.shutdown();
+    }
+
+    private static final class CarRange extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final MyLift.ElevatorSystem system;
+        private final int from;
+        private final int to;
+
+        CarRange(MyLift.ElevatorSystem system, int from, int to) {
+            this.system = system;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= CARS_PER_TASK) {
+                for (int e = from; e < to; e++) {
+                    system.getElevator(e).goToNext();
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new CarRange(system, from, mid), new CarRange(system, mid, to));
+        }
+    }
+
+    private static final class SystemRange extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<MyLift.ElevatorSystem> systems;
+        private final int from;
+        private final int to;
+        private final int ticks;
+
+        SystemRange(List<MyLift.ElevatorSystem> systems, int from, int to, int ticks) {
+            this.systems = systems;
+            this.from = from;
+            this.to = to;
+            this.ticks = ticks;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= 1) {
+                for (int s = from; s < to; s++) {
+                    MyLift.ElevatorSystem system = systems.get(s);
+                    for (int t = 0; t < ticks; t++) {
+                        system.beginStep();
+                        new CarRange(system, 0, system.elevatorCount()).invoke();
+                        system.endStep();
+                    }
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new SystemRange(systems, from, mid, ticks), new SystemRange(systems, mid, to, ticks));
+        }
+    }
+}
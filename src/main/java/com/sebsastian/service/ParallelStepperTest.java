@@ -0,0 +1,103 @@
+package com.sebsastian.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author sebastiangetts
+ */
+class ParallelStepperTest {
+
+    private static final int FLOORS = 120;
+    private static final int CARS = 64;
+    private static final int TICKS = 300;
+
+    @Test
+    void seeded_run_shall_not_depend_on_thread_count() {
+        for (DispatchPolicy policy : DispatchPolicy.Standard.values()) {
+            int[] sequential = run(null, policy, 11);
+            for (int threads : new int[]{1, 2, 4, 8}) {
+                ParallelStepper stepper = new ParallelStepper(threads);
+                try {
+                    assertArrayEquals(sequential, run(stepper, policy, 11), policy + " on " + threads + " threads");
+                } finally {
+                    stepper.shutdown();
+                }
+            }
+        }
+    }
+
+    @Test
+    void empty_system_list_shall_be_a_no_op() {
+        ParallelStepper stepper = new ParallelStepper(2);
+        try {
+            stepper.step(new ArrayList<>(), 3);
+        } finally {
+            stepper.shutdown();
+        }
+    }
+
+    @Test
+    void independent_systems_shall_step_in_parallel() {
+        List<MyLift.ElevatorSystem> systems = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            MyLift.ElevatorSystem system = new MyLift.ElevatorSystem(FLOORS, 4);
+            for (int e = 0; e < 4; e++) {
+                system.getElevator(e).addTargetFloor(10 * (e + 1) + i);
+            }
+            systems.add(system);
+        }
+        ParallelStepper stepper = new ParallelStepper(4);
+        try {
+            stepper.step(systems, 1);
+        } finally {
+            stepper.shutdown();
+        }
+
+        for (int i = 0; i < systems.size(); i++) {
+            for (int e = 0; e < 4; e++) {
+                assertEquals(10 * (e + 1) + i, systems.get(i).getElevator(e).getCurrentFloor());
+            }
+        }
+    }
+
+    /**
+     * @return 每一步之后所有电梯的楼层
+     */
+    private static int[] run(ParallelStepper stepper, DispatchPolicy policy, long seed) {
+        MyLift.ElevatorSystem system = MyLift.ElevatorSystem.builder(FLOORS, CARS).policy(policy).build();
+        SplittableRandom random = new SplittableRandom(seed);
+        int[] trace = new int[TICKS * CARS];
+        for (int t = 0; t < TICKS; t++) {
+            for (int i = 0; i < 8; i++) {
+                MyLift.FloorControlPanel panel = system.getFloorControlPanel(random.nextInt(FLOORS));
+                if (random.nextBoolean()) {
+                    panel.pressUp();
+                } else {
+                    panel.pressDown();
+                }
+            }
+            for (int e = 0; e < CARS; e++) {
+                if (random.nextInt(4) == 0) {
+                    system.getElevator(e).addTargetFloor(random.nextInt(FLOORS));
+                }
+            }
+            if (stepper == null) {
+                system.step();
+            } else {
+                stepper.step(system);
+            }
+            for (int e = 0; e < CARS; e++) {
+                trace[t * CARS + e] = system.getElevator(e).getCurrentFloor();
+            }
+        }
+        assertFalse(Arrays.stream(trace).allMatch(f -> f == 0));
+        return trace;
+    }
+}
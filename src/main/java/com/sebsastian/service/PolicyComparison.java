@@ -0,0 +1,65 @@
+package com.sebsastian.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+/**
+ * Runs the same seeded workload through several {@link DispatchPolicy}s side by side and compares their KPIs.
+ * 每个策略一次独立的 {@link Simulation}，在 executor 上并行运行；同一种子保证各策略面对完全相同的乘客流。
+ *
+ * @author sebastiangetts
+ */
+final class PolicyComparison {
+
+    private PolicyComparison() {
+    }
+
+    /**
+     * @param policies 策略名到策略，结果按同样的顺序返回
+     * @param workload 按策略构造模拟，除策略外的参数应当相同
+     */
+    static Map<String, Simulation.Report> compare(Map<String, ? extends DispatchPolicy> policies,
+                                                   Function<DispatchPolicy, Simulation> workload,
+                                                   long durationMillis, Executor executor) {
+        Map<String, CompletableFuture<Simulation.Report>> runs = new LinkedHashMap<>();
+        for (Map.Entry<String, ? extends DispatchPolicy> policy : policies.entrySet()) {
+            runs.put(policy.getKey(), CompletableFuture.supplyAsync(
+                    () -> workload.apply(policy.getValue()).run(durationMillis), executor));
+        }
+        Map<String, Simulation.Report> reports = new LinkedHashMap<>();
+        for (Map.Entry<String, CompletableFuture<Simulation.Report>> run : runs.entrySet()) {
+            reports.put(run.getKey(), run.getValue().join());
+        }
+        return reports;
+    }
+
+    /**
+     * 比较所有内置策略
+     */
+    static Map<String, Simulation.Report> compareStandard(Function<DispatchPolicy, Simulation> workload,
+                                                           long durationMillis, Executor executor) {
+        Map<String, DispatchPolicy> policies = new LinkedHashMap<>();
+        for (DispatchPolicy.Standard policy : DispatchPolicy.Standard.values()) {
+            policies.put(policy.name(), policy);
+        }
+        return compare(policies, workload, durationMillis, executor);
+    }
+
+    /**
+     * @return 每个策略一行的对比表，时间单位为秒
+     */
+    static String table(Map<String, Simulation.Report> reports) {
+        StringBuilder table = new StringBuilder(String.format("%-12s %10s %10s %12s %9s %9s %9s%n",
+                "policy", "passengers", "delivered", "throughput/h", "avgWait", "p99Wait", "avgRide"));
+        for (Map.Entry<String, Simulation.Report> entry : reports.entrySet()) {
+            Simulation.Report r = entry.getValue();
+            table.append(String.format("%-12s %10d %10d %12.1f %9.1f %9.1f %9.1f%n", entry.getKey(), r.passengers,
+                    r.delivered, r.throughputPerHour(), r.averageWaitMillis / 1000, r.p99WaitMillis / 1000d,
+                    r.averageRideMillis / 1000));
+        }
+        return table.toString();
+    }
+}
@@ -0,0 +1,121 @@
+package com.sebsastian.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author sebastiangetts
+ */
+class PolicyComparisonTest {
+
+    private static final long HOUR = 3_600_000L;
+
+    /**
+     * 电梯0停在5层且排着3个target，电梯1闲置在0层，之后7层按上行
+     */
+    private MyLift.ElevatorSystem busyCarNearCall(DispatchPolicy policy) {
+        MyLift.ElevatorSystem system = MyLift.ElevatorSystem.builder(20, 2).policy(policy).build();
+        system.getElevator(0).addTargetFloor(5);
+        system.step();
+        system.addTargetFloors(0, new int[]{15, 16, 17});
+        system.getFloorControlPanel(7).pressUp();
+        system.step();
+        return system;
+    }
+
+    @Test
+    void eta_policy_shall_weigh_queued_stops() {
+        MyLift.ElevatorSystem system = busyCarNearCall(DispatchPolicy.Standard.ETA);
+
+        assertEquals(7, system.getElevator(1).getCurrentFloor());
+        assertEquals(15, system.getElevator(0).getCurrentFloor());
+    }
+
+    @Test
+    void nearest_car_policy_shall_ignore_queued_stops() {
+        MyLift.ElevatorSystem system = busyCarNearCall(DispatchPolicy.Standard.NEAREST_CAR);
+
+        assertEquals(7, system.getElevator(0).getCurrentFloor());
+        assertEquals(0, system.getElevator(1).getCurrentFloor());
+    }
+
+    @Test
+    void collective_policy_shall_let_any_car_claim_any_call() {
+        MyLift.ElevatorSystem system = MyLift.ElevatorSystem.builder(10, 2)
+                .policy(DispatchPolicy.Standard.COLLECTIVE).build();
+        system.getFloorControlPanel(3).pressUp();
+
+        assertEquals(-1, system.callEtaMillis(3, true, 0));
+        system.step();
+
+        assertEquals(3, system.getElevator(0).getCurrentFloor());
+        assertEquals(0, system.getElevator(1).getCurrentFloor());
+        assertFalse(system.getFloorControlPanel(3).isUpPressed());
+        system.rebalance();
+        assertNull(DispatchPolicy.Standard.COLLECTIVE.bind(10, null));
+    }
+
+    @Test
+    void custom_policy_shall_be_pluggable() {
+        // 只用最后一台电梯
+        DispatchPolicy lastCar = (floors, motion) -> new DispatchPolicy.Scorer() {
+            @Override
+            public int cost(int car, int current, int direction, int highest, int lowest, int stops, boolean full,
+                            int floor, boolean up) {
+                return -car;
+            }
+
+            @Override
+            public int hysteresis() {
+                return 0;
+            }
+        };
+        MyLift.ElevatorSystem system = MyLift.ElevatorSystem.builder(10, 3).policy(lastCar).build();
+        system.getFloorControlPanel(4).pressDown();
+        system.step();
+
+        assertEquals(4, system.getElevator(2).getCurrentFloor());
+        assertEquals(0, system.getElevator(0).getCurrentFloor());
+    }
+
+    @Test
+    void policies_shall_face_the_same_workload_in_parallel() {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Map<String, Simulation.Report> reports = PolicyComparison.compareStandard(
+                    policy -> Simulation.builder(20, 4, Simulation.TrafficPattern.LUNCH, 600, 5)
+                            .motion(MotionModel.standard()).capacity(13).policy(policy).build(), HOUR, executor);
+
+            assertEquals(DispatchPolicy.Standard.values().length, reports.size());
+            int passengers = reports.get("ETA").passengers;
+            for (Simulation.Report report : reports.values()) {
+                assertEquals(passengers, report.passengers);
+                assertEquals(passengers, report.delivered);
+            }
+            String table = PolicyComparison.table(reports);
+            assertTrue(table.startsWith("policy"));
+            assertTrue(table.contains("NEAREST_CAR"));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void same_policy_shall_reproduce_its_report() {
+        Map<String, DispatchPolicy> policies = new LinkedHashMap<>();
+        policies.put("a", DispatchPolicy.Standard.LOOK);
+        policies.put("b", DispatchPolicy.Standard.LOOK);
+
+        Map<String, Simulation.Report> reports = PolicyComparison.compare(policies,
+                policy -> Simulation.builder(15, 3, Simulation.TrafficPattern.INTERFLOOR, 500, 8)
+                        .motion(MotionModel.standard()).policy(policy).build(), HOUR, Runnable::run);
+
+        assertEquals(reports.get("a").toString(), reports.get("b").toString());
+    }
+}
@@ -0,0 +1,92 @@
+package com.sebsastian.service;
+
+/**
+ * Served-floor masks for restricted-service cars, see {@link MyLift.ElevatorSystem#restrictService}.
+ * 按整字填充位图，高楼里构造也只是 O(floors / 64)；奇偶层电梯照例也停大堂（0层）。
+ *
+ * @author sebastiangetts
+ */
+final class ServedFloors {
+
+    private static final long ODD = 0xAAAA_AAAA_AAAA_AAAAL;
+    private static final long EVEN = 0x5555_5555_5555_5555L;
+
+    private ServedFloors() {
+    }
+
+    /**
+     * @return from 到 to（含）之间的楼层
+     */
+    static MyLift.FloorBitmap range(int totalFloors, int from, int to) {
+        checkRange(totalFloors, from, to);
+        MyLift.FloorBitmap floors = new MyLift.FloorBitmap(totalFloors);
+        fill(floors, from, to, -1L);
+        return floors;
+    }
+
+    /**
+     * 快速电梯：除 skipFrom 到 skipTo（含）之外的楼层，例如跳过2到30层直达高区
+     */
+    static MyLift.FloorBitmap express(int totalFloors, int skipFrom, int skipTo) {
+        checkRange(totalFloors, skipFrom, skipTo);
+        MyLift.FloorBitmap floors = new MyLift.FloorBitmap(totalFloors);
+        fill(floors, 0, totalFloors - 1, -1L);
+        fill(floors, skipFrom, skipTo, 0);
+        return floors;
+    }
+
+    /**
+     * @return 奇数层和大堂
+     */
+    static MyLift.FloorBitmap odd(int totalFloors) {
+        MyLift.FloorBitmap floors = new MyLift.FloorBitmap(totalFloors);
+        fill(floors, 0, totalFloors - 1, ODD);
+        floors.set(0);
+        return floors;
+    }
+
+    /**
+     * @return 偶数层，包括大堂
+     */
+    static MyLift.FloorBitmap even(int totalFloors) {
+        MyLift.FloorBitmap floors = new MyLift.FloorBitmap(totalFloors);
+        fill(floors, 0, totalFloors - 1, EVEN);
+        return floors;
+    }
+
+    /**
+     * 逐个列出的楼层，例如货梯只停装卸区和设备层
+     */
+    static MyLift.FloorBitmap of(int totalFloors, int... served) {
+        MyLift.FloorBitmap floors = new MyLift.FloorBitmap(totalFloors);
+        for (int floor : served) {
+            checkRange(totalFloors, floor, floor);
+            floors.set(floor);
+        }
+        return floors;
+    }
+
+    private static void checkRange(int totalFloors, int from, int to) {
+        if (from < 0 || to >= totalFloors || from > to) {
+            throw new IllegalArgumentException("floors " + from + ".." + to + " of " + totalFloors);
+        }
+    }
+
+    /**
+     * 把 from 到 to（含）之间的位按 pattern 覆盖，区间外的位不变
+     */
+    private static void fill(MyLift.FloorBitmap floors, int from, int to, long pattern) {
+        int first = from >>> 6;
+        int last = to >>> 6;
+        for (int i = first; i <= last; i++) {
+            long bits = -1L;
+            if (i == first) {
+                bits &= -1L << from;
+            }
+            if (i == last) {
+                bits &= -1L >>> (63 - (to & 63));
+            }
+            floors.setWord(i, floors.word(i) & ~bits | pattern & bits);
+        }
+    }
+}
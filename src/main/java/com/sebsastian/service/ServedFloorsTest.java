@@ -0,0 +1,125 @@
+package com.sebsastian.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author sebastiangetts
+ */
+class ServedFloorsTest {
+
+    @Test
+    void masks_shall_cover_exactly_their_floors_across_words() {
+        MyLift.FloorBitmap express = ServedFloors.express(200, 2, 130);
+        MyLift.FloorBitmap odd = ServedFloors.odd(200);
+        MyLift.FloorBitmap even = ServedFloors.even(200);
+        MyLift.FloorBitmap range = ServedFloors.range(200, 60, 70);
+
+        assertEquals(2 + 69, express.size());
+        assertTrue(express.get(1) && !express.get(2) && !express.get(130) && express.get(131) && express.get(199));
+        assertEquals(101, odd.size());
+        assertTrue(odd.get(0) && odd.get(199) && !odd.get(64));
+        assertEquals(100, even.size());
+        assertTrue(even.get(0) && even.get(198) && !even.get(199));
+        assertEquals(11, range.size());
+        assertEquals(60, range.nextSetBit(0));
+        assertEquals(70, range.previousSetBit(199));
+        assertThrows(IllegalArgumentException.class, () -> ServedFloors.range(200, 5, 200));
+    }
+
+    @Test
+    void masked_lookup_shall_skip_floors_outside_the_mask() {
+        MyLift.FloorBitmap calls = ServedFloors.of(300, 2, 64, 130, 250);
+        MyLift.FloorBitmap mask = ServedFloors.range(300, 100, 299);
+
+        assertEquals(130, calls.nextSetBit(0, mask));
+        assertEquals(130, calls.previousSetBit(200, mask));
+        assertEquals(-1, calls.previousSetBit(99, mask));
+        assertEquals(130, calls.nearest(70, mask));
+        assertEquals(64, calls.nearest(70));
+    }
+
+    @Test
+    void target_outside_service_shall_be_rejected() {
+        MyLift.ElevatorSystem system = new MyLift.ElevatorSystem(40, 1);
+        system.restrictService(0, ServedFloors.express(40, 2, 30));
+        MyLift.Elevator express = system.getElevator(0);
+
+        assertFalse(express.addTargetFloor(15));
+        assertTrue(express.addTargetFloor(35));
+        assertTrue(express.addTargetFloor(1));
+        assertEquals(1, system.getMetrics().getRejectedTargets());
+    }
+
+    @Test
+    void hall_call_shall_only_be_assigned_to_cars_serving_its_floor() {
+        MyLift.ElevatorSystem system = new MyLift.ElevatorSystem(40, 2);
+        system.restrictService(0, ServedFloors.express(40, 2, 30));
+        MyLift.Elevator local = system.getElevator(1);
+        local.addTargetFloor(39);
+        local.goToNext();
+
+        // 快速电梯就在大堂，离得更近也不能接10层的呼叫
+        system.getFloorControlPanel(10).pressUp();
+        system.rebalance();
+
+        system.getElevator(0).goToNext();
+        assertEquals(0, system.getElevator(0).getCurrentFloor());
+        local.goToNext();
+        assertEquals(10, local.getCurrentFloor());
+    }
+
+    @Test
+    void call_no_car_serves_shall_be_rejected() {
+        MyLift.ElevatorSystem system = new MyLift.ElevatorSystem(10, 2);
+        system.restrictService(0, ServedFloors.odd(10));
+        system.restrictService(1, ServedFloors.odd(10));
+
+        assertFalse(system.getFloorControlPanel(4).pressUp());
+        assertTrue(system.getFloorControlPanel(5).pressUp());
+        assertEquals(1, system.getMetrics().getRejectedPresses());
+
+        system.restrictService(1, null);
+        assertTrue(system.getFloorControlPanel(4).pressUp());
+    }
+
+    @Test
+    void collective_car_shall_only_claim_calls_it_serves() {
+        MyLift.ElevatorSystem system = MyLift.ElevatorSystem.builder(10, 2)
+                .policy(DispatchPolicy.Standard.COLLECTIVE).build();
+        system.restrictService(0, ServedFloors.odd(10));
+        system.restrictService(1, ServedFloors.even(10));
+        MyLift.Elevator odd = system.getElevator(0);
+        system.getFloorControlPanel(2).pressUp();
+        system.getFloorControlPanel(3).pressUp();
+        system.getFloorControlPanel(4).pressUp();
+        system.getFloorControlPanel(6).pressUp();
+        system.getFloorControlPanel(7).pressUp();
+
+        odd.goToNext();
+        assertEquals(3, odd.getCurrentFloor());
+        odd.addTargetFloor(9);
+        odd.goToNext();
+        // 途中跳过4、6层的呼叫，顺路拾取7层
+        assertEquals(7, odd.getCurrentFloor());
+        odd.goToNext();
+        assertEquals(9, odd.getCurrentFloor());
+        assertTrue(system.callService().isUpPressed(2));
+        assertTrue(system.callService().isUpPressed(4));
+        assertTrue(system.callService().isUpPressed(6));
+    }
+
+    @Test
+    void destination_request_shall_pick_a_car_serving_both_floors() {
+        MyLift.ElevatorSystem system = new MyLift.ElevatorSystem(40, 2);
+        system.restrictService(0, ServedFloors.express(40, 2, 30));
+        system.restrictService(1, ServedFloors.range(40, 0, 30));
+        MyLift.FloorControlPanel lobby = system.getFloorControlPanel(0);
+
+        assertEquals(0, lobby.requestDestination(35));
+        assertEquals(1, lobby.requestDestination(20));
+        assertEquals(-1, system.getFloorControlPanel(20).requestDestination(35));
+        assertEquals(1, system.getMetrics().getRejectedPresses());
+    }
+}
@@ -0,0 +1,591 @@
+package com.sebsastian.service;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Discrete-event simulation of an {@link MyLift.ElevatorSystem} under seeded passenger traffic.
+ * 乘客按泊松过程到达，在楼层面板按上/下，认领了该方向呼叫的电梯停在该层时按先后顺序登梯并输入目的楼层，
+ * 电梯满员时剩下的乘客重新按键等下一台。目的楼层登记模式下乘客在厅外输入目的楼层，只登上分配给自己的那台电梯。
+ * 每台电梯出发前都像 {@link MyLift.ElevatorSystem#step()} 一样按各电梯当前状态重新分配呼叫，各策略走同一套推进流程。
+ * 事件队列是基于原始数组的二叉堆，乘客只占用几个原始数组的槽位，不为每个事件分配对象。
+ *
+ * @author sebastiangetts
+ */
+final class Simulation {
+
+    /**
+     * 默认运动模型每经过一层的耗时（毫秒）
+     */
+    static final long FLOOR_MILLIS = 1_500;
+
+    /**
+     * 默认运动模型每次停靠开关门的耗时（毫秒）
+     */
+    static final long STOP_MILLIS = 10_000;
+
+    private static final int ARRIVAL = 0;
+    private static final int CAR_READY = 1;
+
+    /**
+     * Passenger traffic mixes: share of trips starting at and ending at the lobby (floor 0); the rest is interfloor.
+     */
+    enum TrafficPattern {
+        UP_PEAK(0.9, 0.05),
+        DOWN_PEAK(0.05, 0.9),
+        LUNCH(0.45, 0.45),
+        INTERFLOOR(0.0, 0.0);
+
+        private final double fromLobby;
+        private final double toLobby;
+
+        TrafficPattern(double fromLobby, double toLobby) {
+            this.fromLobby = fromLobby;
+            this.toLobby = toLobby;
+        }
+
+        /**
+         * @return 起点楼层与目的楼层编码为 origin * floors + destination
+         */
+        int nextTrip(SplittableRandom random, int floors) {
+            double r = random.nextDouble();
+            int origin;
+            int destination;
+            if (r < fromLobby) {
+                origin = 0;
+                destination = 1 + random.nextInt(floors - 1);
+            } else if (r < fromLobby + toLobby) {
+                origin = 1 + random.nextInt(floors - 1);
+                destination = 0;
+            } else {
+                origin = random.nextInt(floors);
+                destination = random.nextInt(floors - 1);
+                if (destination >= origin) {
+                    destination++;
+                }
+            }
+            return origin * floors + destination;
+        }
+    }
+
+    private final int floors;
+    private final int cars;
+    private final TrafficPattern pattern;
+    private final double meanArrivalMillis;
+    private final long seed;
+    private final MotionModel motion;
+    private final int capacity;
+    private final DispatchPolicy policy;
+    private final long maxWaitMillis;
+    private final boolean destinationDispatch;
+
+    Simulation(int floors, int cars, TrafficPattern pattern, double passengersPerHour, long seed) {
+        this(builder(floors, cars, pattern, passengersPerHour, seed));
+    }
+
+    private Simulation(Builder builder) {
+        if (builder.floors < 2 || builder.cars < 1 || builder.passengersPerHour <= 0) {
+            throw new IllegalArgumentException("need at least 2 floors, 1 car and a positive arrival rate");
+        }
+        this.floors = builder.floors;
+        this.cars = builder.cars;
+        this.pattern = builder.pattern;
+        this.meanArrivalMillis = 3_600_000d / builder.passengersPerHour;
+        this.seed = builder.seed;
+        this.motion = builder.motion;
+        this.capacity = builder.capacity;
+        this.policy = builder.policy;
+        this.maxWaitMillis = builder.maxWaitMillis;
+        this.destinationDispatch = builder.destinationDispatch;
+    }
+
+    static Builder builder(int floors, int cars, TrafficPattern pattern, double passengersPerHour, long seed) {
+        return new Builder(floors, cars, pattern, passengersPerHour, seed);
+    }
+
+    /**
+     * Optional settings of a {@link Simulation}; the building, traffic and seed are fixed up front.
+     */
+    static final class Builder {
+
+        private final int floors;
+        private final int cars;
+        private final TrafficPattern pattern;
+        private final double passengersPerHour;
+        private final long seed;
+        private MotionModel motion = MotionModel.linear(FLOOR_MILLIS, STOP_MILLIS);
+        private int capacity = MyLift.Elevator.UNLIMITED;
+        private DispatchPolicy policy = DispatchPolicy.Standard.ETA;
+        private long maxWaitMillis;
+        private boolean destinationDispatch;
+
+        private Builder(int floors, int cars, TrafficPattern pattern, double passengersPerHour, long seed) {
+            this.floors = floors;
+            this.cars = cars;
+            this.pattern = pattern;
+            this.passengersPerHour = passengersPerHour;
+            this.seed = seed;
+        }
+
+        /**
+         * @param motion 电梯运行与停靠的时间模型，调度也按它估计的到达时间分配呼叫
+         */
+        Builder motion(MotionModel motion) {
+            this.motion = motion;
+            return this;
+        }
+
+        /**
+         * @param capacity 每台电梯的额定载客数
+         */
+        Builder capacity(int capacity) {
+            this.capacity = capacity;
+            return this;
+        }
+
+        /**
+         * @param policy 呼叫分配策略，同一种子下不同策略面对完全相同的乘客流
+         */
+        Builder policy(DispatchPolicy policy) {
+            this.policy = policy;
+            return this;
+        }
+
+        /**
+         * @param maxWaitMillis 呼叫的最长等待，见 {@link MyLift.ElevatorSystem#enableAging}；0 表示不限制
+         */
+        Builder maxWait(long maxWaitMillis) {
+            this.maxWaitMillis = maxWaitMillis;
+            return this;
+        }
+
+        /**
+         * 乘客在厅外登记目的楼层，见 {@link MyLift.FloorControlPanel#requestDestination}
+         */
+        Builder destinationDispatch() {
+            this.destinationDispatch = true;
+            return this;
+        }
+
+        Simulation build() {
+            return new Simulation(this);
+        }
+    }
+
+    /**
+     * 模拟指定时长的到达，之后停止产生新乘客并继续运行直到所有乘客送达
+     *
+     * @param durationMillis 产生乘客的时长
+     * @return 统计结果
+     */
+    Report run(long durationMillis) {
+        return new Run().run(durationMillis);
+    }
+
+    /**
+     * State of a single run; one instance per {@link #run(long)} call.
+     */
+    private final class Run {
+
+        /**
+         * 虚拟时间（毫秒），也是呼叫老化使用的时钟
+         */
+        private long now;
+
+        private final SplittableRandom random = new SplittableRandom(seed);
+        private final MyLift.ElevatorSystem system = MyLift.ElevatorSystem.builder(floors, cars)
+                .motion(motion)
+                .capacity(capacity)
+                .policy(policy)
+                .aging(TimeUnit.MILLISECONDS.toNanos(maxWaitMillis), () -> TimeUnit.MILLISECONDS.toNanos(now))
+                .build();
+        private final EventQueue events = new EventQueue();
+
+        // 乘客按编号存放：目的楼层、到达时刻、登梯时刻、目的楼层登记模式下分配到的电梯
+        private int[] destination = new int[1024];
+        private int[] assignedCar = new int[1024];
+        private long[] arrivedAt = new long[1024];
+        private long[] boardedAt = new long[1024];
+        private int passengers;
+
+        // 每层向上/向下的等候队列，以及每台电梯内的乘客
+        private final IntList[] waitingUp = new IntList[floors];
+        private final IntList[] waitingDown = new IntList[floors];
+        private final IntList[] waitingAssigned = new IntList[floors];
+        private final IntList[] riding = new IntList[cars];
+        private final boolean[] idle = new boolean[cars];
+
+        /**
+         * 每层向上/向下的呼叫最近一次被哪台电梯认领，乘客登上的就是这一台；登梯后复位为-1
+         */
+        private final int[] claimedUp = new int[floors];
+        private final int[] claimedDown = new int[floors];
+
+        private final LongList waits = new LongList();
+        private long totalRide;
+        private int delivered;
+
+        Run() {
+            Arrays.fill(claimedUp, -1);
+            Arrays.fill(claimedDown, -1);
+            for (int f = 0; f < floors; f++) {
+                waitingUp[f] = new IntList();
+                waitingDown[f] = new IntList();
+                waitingAssigned[f] = new IntList();
+            }
+            for (int c = 0; c < cars; c++) {
+                riding[c] = new IntList();
+                idle[c] = true;
+            }
+            // 在发布事件的线程上同步投递：记下认领呼叫的电梯，重新分配把呼叫交给闲置的电梯时立即唤醒它
+            system.events().subscribe(this::onEvent, 64, Runnable::run);
+        }
+
+        private void onEvent(int type, int car, int floor) {
+            if (type == LiftEvents.CALL_SERVED_UP) {
+                claimedUp[floor] = car;
+            } else if (type == LiftEvents.CALL_SERVED_DOWN) {
+                claimedDown[floor] = car;
+            } else if ((type == LiftEvents.CALL_ASSIGNED_UP || type == LiftEvents.CALL_ASSIGNED_DOWN) && idle[car]) {
+                idle[car] = false;
+                events.push(now, CAR_READY | car << 1);
+            }
+        }
+
+        Report run(long durationMillis) {
+            events.push(nextArrival(0), ARRIVAL);
+            while (!events.isEmpty()) {
+                now = events.peekTime();
+                int payload = events.pop();
+                if ((payload & 1) == ARRIVAL) {
+                    if (now >= durationMillis) {
+                        continue;
+                    }
+                    arrive(now);
+                    events.push(nextArrival(now), ARRIVAL);
+                } else {
+                    step(payload >>> 1, now);
+                }
+            }
+            return report(durationMillis, now);
+        }
+
+        private long nextArrival(long now) {
+            return now + (long) (-Math.log(1 - random.nextDouble()) * meanArrivalMillis);
+        }
+
+        private void arrive(long now) {
+            int trip = pattern.nextTrip(random, floors);
+            int origin = trip / floors;
+            int target = trip % floors;
+            int id = passengers++;
+            if (id == destination.length) {
+                int size = id * 2;
+                destination = Arrays.copyOf(destination, size);
+                assignedCar = Arrays.copyOf(assignedCar, size);
+                arrivedAt = Arrays.copyOf(arrivedAt, size);
+                boardedAt = Arrays.copyOf(boardedAt, size);
+            }
+            destination[id] = target;
+            arrivedAt[id] = now;
+            MyLift.FloorControlPanel panel = system.getFloorControlPanel(origin);
+            if (destinationDispatch) {
+                assignedCar[id] = panel.requestDestination(target);
+                waitingAssigned[origin].add(id);
+            } else if (target > origin) {
+                waitingUp[origin].add(id);
+                panel.pressUp();
+            } else {
+                waitingDown[origin].add(id);
+                panel.pressDown();
+            }
+            wake(now);
+        }
+
+        /**
+         * 有新呼叫时唤醒所有闲置的电梯
+         */
+        private void wake(long now) {
+            for (int c = 0; c < cars; c++) {
+                if (idle[c]) {
+                    idle[c] = false;
+                    events.push(now, CAR_READY | c << 1);
+                }
+            }
+        }
+
+        private void step(int car, long now) {
+            MyLift.Elevator elevator = system.getElevator(car);
+            int from = elevator.getCurrentFloor();
+            // 系统在出发前按空位放行分配给本电梯的乘客，与下面登梯的是同一批人
+            int seats = elevator.getCapacity() - elevator.getLoad();
+            boolean admitsUp = destinationDispatch && DestinationDispatcher.admits(elevator, from, true);
+            boolean admitsDown = destinationDispatch && DestinationDispatcher.admits(elevator, from, false);
+            system.rebalance();
+            long at = elevator.goToNext(now);
+            int to = elevator.getCurrentFloor();
+            boolean departed = destinationDispatch && boardAssigned(car, elevator, from, seats, admitsUp, admitsDown, now);
+            boolean stopped = alight(car, elevator, to, at) | (!destinationDispatch && board(car, elevator, to, at));
+            if (to == from && !stopped && !departed) {
+                idle[car] = true;
+                return;
+            }
+            events.push(at + motion.doorMillis(), CAR_READY | car << 1);
+        }
+
+        private boolean alight(int car, MyLift.Elevator elevator, int floor, long at) {
+            IntList inside = riding[car];
+            int kept = 0;
+            for (int i = 0; i < inside.size; i++) {
+                int id = inside.values[i];
+                if (destination[id] == floor) {
+                    totalRide += at - boardedAt[id];
+                    delivered++;
+                } else {
+                    inside.values[kept++] = id;
+                }
+            }
+            boolean any = kept != inside.size;
+            elevator.alight(inside.size - kept);
+            inside.size = kept;
+            return any;
+        }
+
+        /**
+         * 本电梯在这次停靠认领了该方向的呼叫时，等候的乘客按到达顺序登梯，登不上的重新按键。
+         * 呼叫被别的电梯清除或本电梯只是路过时乘客不登梯
+         */
+        private boolean board(int car, MyLift.Elevator elevator, int floor, long at) {
+            MyLift.FloorControlPanel panel = system.getFloorControlPanel(floor);
+            boolean boardsUp = claimedUp[floor] == car;
+            boolean boardsDown = claimedDown[floor] == car;
+            if (boardsUp) {
+                claimedUp[floor] = -1;
+            }
+            if (boardsDown) {
+                claimedDown[floor] = -1;
+            }
+            boolean any = false;
+            if (!waitingUp[floor].isEmpty() && boardsUp) {
+                any = true;
+                if (!board(car, elevator, waitingUp[floor], at)) {
+                    panel.pressUp();
+                    wake(at);
+                }
+            }
+            if (!waitingDown[floor].isEmpty() && boardsDown) {
+                any = true;
+                if (!board(car, elevator, waitingDown[floor], at)) {
+                    panel.pressDown();
+                    wake(at);
+                }
+            }
+            return any;
+        }
+
+        /**
+         * @return 等候的乘客是否全部登梯
+         */
+        private boolean board(int car, MyLift.Elevator elevator, IntList waiting, long at) {
+            int boarded = elevator.board(waiting.size);
+            for (int i = 0; i < boarded; i++) {
+                int id = waiting.values[i];
+                boardedAt[id] = at;
+                waits.add(at - arrivedAt[id]);
+                riding[car].add(id);
+                elevator.addTargetFloor(destination[id]);
+            }
+            waiting.removeFirst(boarded);
+            return waiting.isEmpty();
+        }
+
+        /**
+         * 分配给本电梯、方向可以登梯的乘客按到达顺序登上 seats 个，目的楼层已由系统加入target；其余的继续等这台电梯
+         */
+        private boolean boardAssigned(int car, MyLift.Elevator elevator, int floor, int seats, boolean admitsUp,
+                                      boolean admitsDown, long at) {
+            IntList waiting = waitingAssigned[floor];
+            int kept = 0;
+            int boarded = 0;
+            for (int i = 0; i < waiting.size; i++) {
+                int id = waiting.values[i];
+                if (assignedCar[id] == car && boarded < seats && (destination[id] > floor ? admitsUp : admitsDown)) {
+                    boarded += elevator.board(1);
+                    boardedAt[id] = at;
+                    waits.add(at - arrivedAt[id]);
+                    riding[car].add(id);
+                } else {
+                    waiting.values[kept++] = id;
+                }
+            }
+            waiting.size = kept;
+            return boarded > 0;
+        }
+
+        private Report report(long durationMillis, long endMillis) {
+            long[] sorted = waits.toSortedArray();
+            long totalWait = 0;
+            for (long wait : sorted) {
+                totalWait += wait;
+            }
+            return new Report(passengers, delivered, durationMillis, endMillis,
+                    sorted.length == 0 ? 0 : (double) totalWait / sorted.length,
+                    percentile(sorted, 0.99),
+                    delivered == 0 ? 0 : (double) totalRide / delivered);
+        }
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, index)];
+    }
+
+    /**
+     * Aggregated KPIs of one simulation run. Times are in milliseconds.
+     */
+    static final class Report {
+
+        final int passengers;
+        final int delivered;
+        final long durationMillis;
+        final long endMillis;
+        final double averageWaitMillis;
+        final long p99WaitMillis;
+        final double averageRideMillis;
+
+        Report(int passengers, int delivered, long durationMillis, long endMillis,
+               double averageWaitMillis, long p99WaitMillis, double averageRideMillis) {
+            this.passengers = passengers;
+            this.delivered = delivered;
+            this.durationMillis = durationMillis;
+            this.endMillis = endMillis;
+            this.averageWaitMillis = averageWaitMillis;
+            this.p99WaitMillis = p99WaitMillis;
+            this.averageRideMillis = averageRideMillis;
+        }
+
+        /**
+         * @return 每小时送达的乘客数，按运行结束时刻计算
+         */
+        double throughputPerHour() {
+            return endMillis == 0 ? 0 : delivered * 3_600_000d / endMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("passengers=%d delivered=%d throughput=%.1f/h avgWait=%.1fs p99Wait=%.1fs avgRide=%.1fs",
+                    passengers, delivered, throughputPerHour(), averageWaitMillis / 1000,
+                    p99WaitMillis / 1000d, averageRideMillis / 1000);
+        }
+    }
+
+    /**
+     * Binary min-heap of (time, payload) pairs kept in parallel primitive arrays.
+     */
+    static final class EventQueue {
+
+        private long[] times = new long[64];
+        private int[] payloads = new int[64];
+        private int size;
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        int size() {
+            return size;
+        }
+
+        void push(long time, int payload) {
+            if (size == times.length) {
+                times = Arrays.copyOf(times, size * 2);
+                payloads = Arrays.copyOf(payloads, size * 2);
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (times[parent] <= time) {
+                    break;
+                }
+                times[i] = times[parent];
+                payloads[i] = payloads[parent];
+                i = parent;
+            }
+            times[i] = time;
+            payloads[i] = payload;
+        }
+
+        long peekTime() {
+            return times[0];
+        }
+
+        int pop() {
+            int result = payloads[0];
+            int last = --size;
+            long time = times[last];
+            int payload = payloads[last];
+            int i = 0;
+            int half = size >>> 1;
+            while (i < half) {
+                int child = 2 * i + 1;
+                if (child + 1 < size && times[child + 1] < times[child]) {
+                    child++;
+                }
+                if (time <= times[child]) {
+                    break;
+                }
+                times[i] = times[child];
+                payloads[i] = payloads[child];
+                i = child;
+            }
+            times[i] = time;
+            payloads[i] = payload;
+            return result;
+        }
+    }
+
+    static final class IntList {
+
+        int[] values = new int[8];
+        int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        void removeFirst(int n) {
+            System.arraycopy(values, n, values, 0, size - n);
+            size -= n;
+        }
+    }
+
+    static final class LongList {
+
+        private long[] values = new long[1024];
+        private int size;
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        long[] toSortedArray() {
+            long[] sorted = Arrays.copyOf(values, size);
+            Arrays.sort(sorted);
+            return sorted;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.sebsastian.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author sebastiangetts
+ */
+class SimulationTest {
+
+    private static final long HOUR = 3_600_000L;
+
+    @Test
+    void same_seed_shall_give_same_report() {
+        Simulation.Report first = new Simulation(20, 4, Simulation.TrafficPattern.LUNCH, 600, 42).run(HOUR);
+        Simulation.Report second = new Simulation(20, 4, Simulation.TrafficPattern.LUNCH, 600, 42).run(HOUR);
+
+        assertEquals(first.toString(), second.toString());
+        assertEquals(first.endMillis, second.endMillis);
+    }
+
+    @Test
+    void every_passenger_shall_be_delivered() {
+        for (Simulation.TrafficPattern pattern : Simulation.TrafficPattern.values()) {
+            Simulation.Report report = new Simulation(30, 6, pattern, 1_000, 7).run(HOUR);
+
+            assertTrue(report.passengers > 800, pattern.name());
+            assertEquals(report.passengers, report.delivered, pattern.name());
+            assertTrue(report.p99WaitMillis >= report.averageWaitMillis, pattern.name());
+            assertTrue(report.averageRideMillis > 0, pattern.name());
+        }
+    }
+
+    @Test
+    void kinematic_model_shall_drive_simulated_times() {
+        Simulation.Report linear = new Simulation(30, 4, Simulation.TrafficPattern.UP_PEAK, 600, 9).run(HOUR);
+        Simulation.Report standard = Simulation.builder(30, 4, Simulation.TrafficPattern.UP_PEAK, 600, 9)
+                .motion(MotionModel.standard()).build().run(HOUR);
+
+        assertEquals(standard.passengers, standard.delivered);
+        assertNotEquals(linear.averageRideMillis, standard.averageRideMillis);
+    }
+
+    @Test
+    void passengers_left_behind_by_full_cars_shall_still_be_delivered() {
+        Simulation.Report report = Simulation.builder(20, 4, Simulation.TrafficPattern.UP_PEAK, 2_500, 1)
+                .motion(MotionModel.standard()).capacity(13).build().run(HOUR);
+
+        assertEquals(report.passengers, report.delivered);
+        assertTrue(report.throughputPerHour() > 1_000);
+    }
+
+    @Test
+    void destination_dispatch_shall_shorten_up_peak_trips() {
+        Simulation.Builder workload = Simulation.builder(20, 4, Simulation.TrafficPattern.UP_PEAK, 1_000, 1)
+                .motion(MotionModel.standard()).capacity(13).policy(DispatchPolicy.Standard.ETA);
+        Simulation.Report conventional = workload.build().run(HOUR);
+        Simulation.Report destination = workload.destinationDispatch().build().run(HOUR);
+
+        assertEquals(destination.passengers, destination.delivered);
+        assertTrue(destination.averageRideMillis < conventional.averageRideMillis);
+        assertTrue(destination.averageWaitMillis < conventional.averageWaitMillis);
+    }
+
+    @Test
+    void up_peak_trips_shall_start_mostly_at_lobby() {
+        SplittableRandom random = new SplittableRandom(1);
+        int fromLobby = 0;
+        for (int i = 0; i < 10_000; i++) {
+            int trip = Simulation.TrafficPattern.UP_PEAK.nextTrip(random, 10);
+            assertNotEquals(trip / 10, trip % 10);
+            if (trip / 10 == 0) {
+                fromLobby++;
+            }
+        }
+        assertTrue(fromLobby > 8_500);
+    }
+
+    @Test
+    void event_queue_shall_pop_in_time_order() {
+        Simulation.EventQueue queue = new Simulation.EventQueue();
+        SplittableRandom random = new SplittableRandom(3);
+        for (int i = 0; i < 1_000; i++) {
+            queue.push(random.nextInt(10_000), i);
+        }
+        long last = Long.MIN_VALUE;
+        while (!queue.isEmpty()) {
+            long time = queue.peekTime();
+            queue.pop();
+            assertTrue(time >= last);
+            last = time;
+        }
+    }
+}
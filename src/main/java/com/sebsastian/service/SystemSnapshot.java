@@ -0,0 +1,283 @@
+package com.sebsastian.service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compact binary snapshot of an {@link MyLift.ElevatorSystem}: hall calls with their waiting times, car floors,
+ * directions and loads, and per-car target bitmaps.
+ * 采集只是把若干原子字拷贝进一块字节数组，不阻塞调度；写文件可以交给后台线程。
+ * 快照记下采集时日志的位置，恢复时只需回放该位置之后的记录。
+ * <p>
+ * 运动模型、额定载客数、调度策略、停靠楼层和老化上限属于配置，不进快照：恢复到调用方按同样配置构造好的系统里，
+ * 呼叫经登记路径恢复，登记时刻按快照时已等待的时间倒推，老化照常生效。
+ * <p>
+ * 采集不是所有字的一致切面，但与日志配合时：采集之前已置位的呼叫一定在快照里，之后的事件会被回放，
+ * 因此恢复结果最多多出一个刚被处理的呼叫，不会丢失呼叫。
+ *
+ * @author sebastiangetts
+ */
+final class SystemSnapshot {
+
+    private static final long MAGIC = 0x4c49_4654_534e_4150L;
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 32;
+    private static final int CAR_BYTES = 16;
+
+    /**
+     * Opens the next journal segment for {@link #schedule(MyLift.ElevatorSystem, Path, ScheduledExecutorService,
+     * long, TimeUnit, Segments)}.
+     */
+    interface Segments {
+
+        EventJournal next() throws IOException;
+    }
+
+    private SystemSnapshot() {
+    }
+
+    /**
+     * 在调用线程上采集快照
+     */
+    static byte[] capture(MyLift.ElevatorSystem system) {
+        MyLift.CallService callService = system.callService();
+        EventJournal journal = callService.journal();
+        // 先记日志位置再拷贝状态，位置之前的记录都已反映在拷贝的状态里；
+        // 只记到连续写完的位置，已占位还没写入的记录恢复时从日志回放
+        long journalPosition = journal == null ? 0 : journal.written();
+        int floors = system.totalFloors();
+        int cars = system.elevatorCount();
+        long[] up = words(callService.upCalls());
+        long[] down = words(callService.downCalls());
+        int calls = bitCount(up) + bitCount(down);
+        ByteBuffer buffer = ByteBuffer.allocate(size(cars, up.length, calls)).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putLong(MAGIC).putInt(VERSION).putInt(floors).putInt(cars).putInt(0).putLong(journalPosition);
+        putWords(buffer, up);
+        putWords(buffer, down);
+        for (int e = 0; e < cars; e++) {
+            MyLift.Elevator elevator = system.getElevator(e);
+            buffer.putInt(elevator.getCurrentFloor()).putInt(elevator.getDirection().ordinal())
+                    .putInt(elevator.getLoad()).putInt(0);
+        }
+        for (int e = 0; e < cars; e++) {
+            putWords(buffer, words(system.getElevator(e).targetBitmap()));
+        }
+        // 按拷贝下来的位图逐个记下已等待的时间，期间被认领的呼叫记为0
+        putWaits(buffer, callService, up, true);
+        putWaits(buffer, callService, down, false);
+        return buffer.array();
+    }
+
+    /**
+     * 在调用线程上采集，在 executor 上写入文件（先写临时文件再原子替换）
+     */
+    static CompletableFuture<Path> writeAsync(MyLift.ElevatorSystem system, Path file, Executor executor) {
+        byte[] bytes = capture(system);
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return write(bytes, file);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor);
+    }
+
+    static Path write(MyLift.ElevatorSystem system, Path file) throws IOException {
+        return write(capture(system), file);
+    }
+
+    /**
+     * 截断日志：之后的事件改写入新的日志段 next，旧段上进行中的写入结束后采集快照写入文件，快照记下的是 next 中的位置。
+     * 快照写好后旧段即可关闭删除；写好之前崩溃时，用上一个快照接上旧段，
+     * 再用 {@link MyLift.ElevatorSystem#attachJournal} 接上 next 恢复
+     *
+     * @return 旧的日志段，由调用方关闭；之前没有日志时为空
+     */
+    static EventJournal rollOver(MyLift.ElevatorSystem system, Path file, EventJournal next) throws IOException {
+        EventJournal previous = system.callService().switchJournal(next);
+        write(system, file);
+        return previous;
+    }
+
+    /**
+     * 每隔 period 在 scheduler 上写一次快照。某次写入失败后不再执行，异常可从返回的 future 取得
+     */
+    static ScheduledFuture<?> schedule(MyLift.ElevatorSystem system, Path file, ScheduledExecutorService scheduler,
+                                       long period, TimeUnit unit) {
+        return scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                write(system, file);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, period, period, unit);
+    }
+
+    /**
+     * 同上，但每次先 {@link #rollOver} 到 segments 打开的新日志段，快照写好后关闭并删除换下的旧段，日志不会写满
+     */
+    static ScheduledFuture<?> schedule(MyLift.ElevatorSystem system, Path file, ScheduledExecutorService scheduler,
+                                       long period, TimeUnit unit, Segments segments) {
+        return scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                EventJournal previous = rollOver(system, file, segments.next());
+                if (previous != null) {
+                    previous.close();
+                    Files.deleteIfExists(previous.file());
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, period, period, unit);
+    }
+
+    private static Path write(byte[] bytes, Path file) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(temp, bytes);
+        return Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 一次读入整个快照文件，恢复到 system 中
+     *
+     * @param system 按快照时的配置新构造的系统，楼层数和电梯数必须一致，不能已有呼叫或日志
+     */
+    static MyLift.ElevatorSystem load(MyLift.ElevatorSystem system, Path file) throws IOException {
+        return restore(system, ByteBuffer.wrap(Files.readAllBytes(file)).order(ByteOrder.LITTLE_ENDIAN), null);
+    }
+
+    /**
+     * 恢复快照后回放日志中快照之后的记录，并继续写入该日志
+     */
+    static MyLift.ElevatorSystem load(MyLift.ElevatorSystem system, Path file, EventJournal journal)
+            throws IOException {
+        return restore(system, ByteBuffer.wrap(Files.readAllBytes(file)).order(ByteOrder.LITTLE_ENDIAN), journal);
+    }
+
+    static MyLift.ElevatorSystem restore(MyLift.ElevatorSystem system, byte[] bytes) throws IOException {
+        return restore(system, ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN), null);
+    }
+
+    private static MyLift.ElevatorSystem restore(MyLift.ElevatorSystem system, ByteBuffer buffer,
+                                                 EventJournal journal) throws IOException {
+        if (buffer.remaining() < HEADER_BYTES || buffer.getLong() != MAGIC || buffer.getInt() != VERSION) {
+            throw new IOException("not an elevator snapshot");
+        }
+        int floors = buffer.getInt();
+        int cars = buffer.getInt();
+        buffer.getInt();
+        long journalPosition = buffer.getLong();
+        if (floors != system.totalFloors() || cars != system.elevatorCount()) {
+            throw new IOException("snapshot was taken of " + floors + " floors and " + cars + " elevators");
+        }
+        MyLift.CallService callService = system.callService();
+        if (callService.journal() != null || callService.hasCalls()) {
+            throw new IllegalArgumentException("snapshot must be restored into a new system without a journal");
+        }
+        int words = (floors + 63) >>> 6;
+        if (buffer.capacity() < size(cars, words, 0)) {
+            throw new IOException("truncated elevator snapshot");
+        }
+        long[] up = getWords(buffer, words);
+        long[] down = getWords(buffer, words);
+        if (buffer.capacity() != size(cars, words, bitCount(up) + bitCount(down))) {
+            throw new IOException("truncated elevator snapshot");
+        }
+        MyLift.Direction[] directions = MyLift.Direction.values();
+        for (int e = 0; e < cars; e++) {
+            int floor = buffer.getInt();
+            int direction = buffer.getInt();
+            int load = buffer.getInt();
+            buffer.getInt();
+            if (floor < 0 || floor >= floors || direction < 0 || direction >= directions.length || load < 0) {
+                throw new IOException("corrupt elevator snapshot: car " + e);
+            }
+            system.getElevator(e).restore(floor, directions[direction], load);
+        }
+        for (int e = 0; e < cars; e++) {
+            MyLift.FloorBitmap targets = system.getElevator(e).targetBitmap();
+            for (int i = 0; i < words; i++) {
+                targets.setWord(i, buffer.getLong());
+            }
+        }
+        // 到达的楼层不再是target
+        for (int e = 0; e < cars; e++) {
+            MyLift.Elevator elevator = system.getElevator(e);
+            elevator.targetBitmap().clear(elevator.getCurrentFloor());
+        }
+        restoreCalls(buffer, callService, up, true);
+        restoreCalls(buffer, callService, down, false);
+        if (journal != null) {
+            system.attachJournal(journal, journalPosition);
+        } else {
+            system.rebalance();
+        }
+        return system;
+    }
+
+    private static int size(int cars, int words, int calls) {
+        long size = HEADER_BYTES + (2L + cars) * words * 8 + (long) cars * CAR_BYTES + calls * 8L;
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("system too large for a snapshot");
+        }
+        return (int) size;
+    }
+
+    private static long[] words(MyLift.FloorBitmap bitmap) {
+        long[] words = new long[bitmap.wordCount()];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = bitmap.word(i);
+        }
+        return words;
+    }
+
+    private static int bitCount(long[] words) {
+        int count = 0;
+        for (long word : words) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    private static void putWords(ByteBuffer buffer, long[] words) {
+        for (long word : words) {
+            buffer.putLong(word);
+        }
+    }
+
+    private static long[] getWords(ByteBuffer buffer, int count) {
+        long[] words = new long[count];
+        for (int i = 0; i < count; i++) {
+            words[i] = buffer.getLong();
+        }
+        return words;
+    }
+
+    private static void putWaits(ByteBuffer buffer, MyLift.CallService callService, long[] words, boolean up) {
+        for (int i = 0; i < words.length; i++) {
+            for (long word = words[i]; word != 0; word &= word - 1) {
+                int floor = i << 6 | Long.numberOfTrailingZeros(word);
+                buffer.putLong(callService.waitedNanos(floor, up));
+            }
+        }
+    }
+
+    private static void restoreCalls(ByteBuffer buffer, MyLift.CallService callService, long[] words, boolean up) {
+        for (int i = 0; i < words.length; i++) {
+            for (long word = words[i]; word != 0; word &= word - 1) {
+                int floor = i << 6 | Long.numberOfTrailingZeros(word);
+                callService.restoreCall(floor, up, buffer.getLong());
+            }
+        }
+    }
+}
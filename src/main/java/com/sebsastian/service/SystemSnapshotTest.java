@@ -0,0 +1,192 @@
+package com.sebsastian.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author sebastiangetts
+ */
+class SystemSnapshotTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void restored_system_shall_match_the_original() throws IOException {
+        MyLift.ElevatorSystem system = new MyLift.ElevatorSystem(3000, 101);
+        SplittableRandom random = new SplittableRandom(5);
+        for (int i = 0; i < 2000; i++) {
+            system.getFloorControlPanel(random.nextInt(3000)).pressUp();
+            system.getFloorControlPanel(random.nextInt(3000)).pressDown();
+            system.getElevator(random.nextInt(101)).addTargetFloor(random.nextInt(3000));
+        }
+        system.step(5);
+        Path file = dir.resolve("system.snapshot");
+
+        SystemSnapshot.write(system, file);
+        MyLift.ElevatorSystem restored = SystemSnapshot.load(new MyLift.ElevatorSystem(3000, 101), file);
+
+        for (int f = 0; f < 3000; f++) {
+            assertEquals(system.getFloorControlPanel(f).isUpPressed(), restored.getFloorControlPanel(f).isUpPressed());
+            assertEquals(system.getFloorControlPanel(f).isDownPressed(), restored.getFloorControlPanel(f).isDownPressed());
+        }
+        for (int e = 0; e < 101; e++) {
+            assertEquals(system.getElevator(e).getCurrentFloor(), restored.getElevator(e).getCurrentFloor());
+            assertEquals(system.getElevator(e).getTargetFloors(), restored.getElevator(e).getTargetFloors());
+            assertEquals(system.getElevator(e).getDirection(), restored.getElevator(e).getDirection());
+        }
+    }
+
+    @Test
+    void restored_calls_shall_keep_their_waiting_time_and_cars_their_load() throws IOException {
+        long maxWait = TimeUnit.SECONDS.toNanos(60);
+        long[] clock = {TimeUnit.SECONDS.toNanos(10)};
+        MyLift.ElevatorSystem system = MyLift.ElevatorSystem.builder(10, 1)
+                .capacity(8).aging(maxWait, () -> clock[0]).build();
+        MyLift.Elevator car = system.getElevator(0);
+        car.board(5);
+        car.addTargetFloor(4);
+        car.addTargetFloor(8);
+        car.goToNext();
+        system.getFloorControlPanel(2).pressDown();
+        clock[0] += TimeUnit.SECONDS.toNanos(30);
+        byte[] bytes = SystemSnapshot.capture(system);
+
+        // 恢复后的进程时钟与原来无关
+        long[] restartedClock = {TimeUnit.SECONDS.toNanos(500)};
+        MyLift.ElevatorSystem restored = SystemSnapshot.restore(MyLift.ElevatorSystem.builder(10, 1)
+                .capacity(8).aging(maxWait, () -> restartedClock[0]).build(), bytes);
+        MyLift.Elevator restoredCar = restored.getElevator(0);
+
+        assertEquals(car.getCurrentFloor(), restoredCar.getCurrentFloor());
+        assertEquals(MyLift.Direction.UP, restoredCar.getDirection());
+        assertEquals(5, restoredCar.getLoad());
+        assertEquals(TimeUnit.SECONDS.toNanos(30), restored.callService().waitedNanos(2, false));
+        restartedClock[0] += TimeUnit.SECONDS.toNanos(31);
+        restored.callService().aging().expire(restartedClock[0]);
+        assertTrue(restored.callService().aging().overdue(false).get(2));
+    }
+
+    @Test
+    void snapshot_shall_only_restore_into_a_matching_empty_system() throws IOException {
+        MyLift.ElevatorSystem system = new MyLift.ElevatorSystem(10, 2);
+        system.getFloorControlPanel(3).pressUp();
+        byte[] bytes = SystemSnapshot.capture(system);
+
+        assertThrows(IOException.class, () -> SystemSnapshot.restore(new MyLift.ElevatorSystem(10, 3), bytes));
+        assertThrows(IllegalArgumentException.class, () -> SystemSnapshot.restore(system, bytes));
+    }
+
+    @Test
+    void scheduled_snapshots_shall_roll_the_journal_over() throws Exception {
+        Path snapshot = dir.resolve("scheduled.snapshot");
+        Path first = dir.resolve("segment-0.journal");
+        AtomicInteger opened = new AtomicInteger();
+        CountDownLatch rolled = new CountDownLatch(2);
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        MyLift.ElevatorSystem system;
+        try {
+            system = MyLift.ElevatorSystem.builder(10, 1).journal(new EventJournal(first, 10, 1, 64, 0)).build();
+            system.getFloorControlPanel(4).pressUp();
+            system.getElevator(0).addTargetFloor(2);
+            SystemSnapshot.schedule(system, snapshot, scheduler, 1, TimeUnit.MILLISECONDS, () -> {
+                rolled.countDown();
+                return new EventJournal(dir.resolve("segment-" + opened.incrementAndGet() + ".journal"), 10, 1, 64, 0);
+            });
+            assertTrue(rolled.await(10, TimeUnit.SECONDS));
+        } finally {
+            scheduler.shutdown();
+            assertTrue(scheduler.awaitTermination(10, TimeUnit.SECONDS));
+        }
+        system.getElevator(0).goToNext();
+        system.getFloorControlPanel(8).pressDown();
+        system.callService().journal().close();
+
+        assertFalse(Files.exists(first));
+        assertFalse(Files.exists(dir.resolve("segment-" + (opened.get() - 1) + ".journal")));
+        try (EventJournal journal = new EventJournal(dir.resolve("segment-" + opened.get() + ".journal"),
+                10, 1, 64, 0)) {
+            MyLift.ElevatorSystem restored = SystemSnapshot.load(new MyLift.ElevatorSystem(10, 1), snapshot, journal);
+
+            assertEquals(2, restored.getElevator(0).getCurrentFloor());
+            assertTrue(restored.getFloorControlPanel(4).isUpPressed());
+            assertTrue(restored.getFloorControlPanel(8).isDownPressed());
+        }
+    }
+
+    @Test
+    void journal_tail_shall_be_replayed_on_top_of_snapshot() throws Exception {
+        Path snapshot = dir.resolve("tail.snapshot");
+        Path journalFile = dir.resolve("tail.journal");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (EventJournal journal = new EventJournal(journalFile, 10, 1, 1024, 0)) {
+            MyLift.ElevatorSystem system = MyLift.ElevatorSystem.builder(10, 1).journal(journal).build();
+            system.getFloorControlPanel(4).pressUp();
+            system.getElevator(0).addTargetFloor(2);
+            SystemSnapshot.writeAsync(system, snapshot, executor).get(10, TimeUnit.SECONDS);
+            system.getElevator(0).goToNext();
+            system.getFloorControlPanel(8).pressDown();
+        } finally {
+            executor.shutdown();
+        }
+
+        try (EventJournal journal = new EventJournal(journalFile, 10, 1, 1024, 0)) {
+            MyLift.ElevatorSystem restored = SystemSnapshot.load(new MyLift.ElevatorSystem(10, 1), snapshot, journal);
+
+            assertEquals(2, restored.getElevator(0).getCurrentFloor());
+            assertTrue(restored.getElevator(0).getTargetFloors().isEmpty());
+            assertTrue(restored.getFloorControlPanel(4).isUpPressed());
+            assertTrue(restored.getFloorControlPanel(8).isDownPressed());
+        }
+    }
+
+    @Test
+    void record_reserved_before_snapshot_shall_be_replayed_once_written() throws Exception {
+        Path snapshot = dir.resolve("reserved.snapshot");
+        Path journalFile = dir.resolve("reserved.journal");
+        try (EventJournal journal = new EventJournal(journalFile, 10, 1, 1024, 0)) {
+            MyLift.ElevatorSystem system = MyLift.ElevatorSystem.builder(10, 1).journal(journal).build();
+            // 电梯移动之前先占到达记录的槽位，快照在它写入之前采集
+            journal.begin(1);
+            long slot = journal.reserve();
+            system.getFloorControlPanel(6).pressUp();
+            assertEquals(slot, journal.written());
+            assertEquals(slot + 2, journal.size());
+            SystemSnapshot.write(system, snapshot);
+            journal.write(slot, EventJournal.ARRIVE, 0, 3);
+            journal.end(0);
+            assertEquals(slot + 2, journal.written());
+        }
+
+        try (EventJournal journal = new EventJournal(journalFile, 10, 1, 1024, 0)) {
+            MyLift.ElevatorSystem restored = SystemSnapshot.load(new MyLift.ElevatorSystem(10, 1), snapshot, journal);
+
+            assertEquals(3, restored.getElevator(0).getCurrentFloor());
+            assertTrue(restored.getFloorControlPanel(6).isUpPressed());
+        }
+    }
+
+    @Test
+    void truncated_snapshot_shall_be_rejected() throws IOException {
+        Path file = dir.resolve("broken.snapshot");
+        SystemSnapshot.write(new MyLift.ElevatorSystem(100, 3), file);
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 8));
+
+        assertThrows(IOException.class, () -> SystemSnapshot.load(new MyLift.ElevatorSystem(100, 3), file));
+    }
+}
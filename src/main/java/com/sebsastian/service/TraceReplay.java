@@ -0,0 +1,537 @@
+package com.sebsastian.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Replays a recorded traffic trace against an {@link MyLift.ElevatorSystem} on the trace's own timestamps.
+ * 轨迹按块从通道读入一个复用的直接缓冲区并就地解析，不生成字符串也不把整个文件读入内存，因此内存占用与轨迹大小无关。
+ * 按键送到楼层面板，目的楼层送到电梯，电梯按运动模型在轨迹时刻之间推进；KPI 按固定的轨迹时间窗口增量输出。
+ * <p>
+ * 支持两种格式：CSV 每行 {@code 时间戳毫秒,类型,电梯,楼层}，类型为 UP、DOWN、TARGET 或对应的
+ * {@link EventJournal} 记录类型编号，按键的电梯列可以为空，非数字开头的行（表头、# 注释）被跳过；
+ * 二进制格式以 {@link #MAGIC} 开头，之后每条记录16字节：时间戳，再加与 {@link EventJournal} 相同的8字节编码。
+ * 轨迹应按时间排序，早于当前时刻的记录在当前时刻生效。
+ * 格式错误、数字溢出、楼层或电梯编号超出系统范围时抛出 {@link IOException}，消息以 “line N:”（二进制为 “record N:”）开头。
+ *
+ * @author sebastiangetts
+ */
+final class TraceReplay {
+
+    static final long MAGIC = 0x4c49_4654_5452_4331L;
+    static final int HEADER_BYTES = 16;
+    static final int RECORD_BYTES = 16;
+
+    /**
+     * 读缓冲区大小，也是 CSV 单行的长度上限
+     */
+    static final int BUFFER_BYTES = 1 << 20;
+
+    private static final int CAR_READY = 1;
+
+    /**
+     * Receives KPIs of each elapsed trace window, in trace time order.
+     */
+    interface Listener {
+
+        void onWindow(Window window);
+    }
+
+    private final MyLift.ElevatorSystem system;
+    private final long windowMillis;
+    private final Listener listener;
+
+    /**
+     * @param system       需带运动模型
+     * @param windowMillis KPI 窗口的轨迹时长
+     * @param listener     每个窗口结束时调用，可以为空
+     */
+    TraceReplay(MyLift.ElevatorSystem system, long windowMillis, Listener listener) {
+        if (windowMillis <= 0) {
+            throw new IllegalArgumentException("window must be positive: " + windowMillis);
+        }
+        this.system = system;
+        this.windowMillis = windowMillis;
+        this.listener = listener;
+    }
+
+    /**
+     * 按文件头自动识别格式
+     *
+     * @return 整个轨迹的 KPI
+     */
+    Window replay(Path trace) throws IOException {
+        try (FileChannel channel = FileChannel.open(trace, StandardOpenOption.READ)) {
+            return replay(channel);
+        }
+    }
+
+    Window replay(ReadableByteChannel channel) throws IOException {
+        return new Run(channel).run();
+    }
+
+    /**
+     * KPIs of one trace window; times are trace milliseconds.
+     */
+    static final class Window {
+
+        final long startMillis;
+        final long endMillis;
+        final long records;
+        final long callsServed;
+        final double averageWaitMillis;
+        final long p99WaitMillis;
+        final long maxWaitMillis;
+        final long stops;
+        final long travelFloors;
+
+        Window(long startMillis, long endMillis, long records, long callsServed, double averageWaitMillis,
+               long p99WaitMillis, long maxWaitMillis, long stops, long travelFloors) {
+            this.startMillis = startMillis;
+            this.endMillis = endMillis;
+            this.records = records;
+            this.callsServed = callsServed;
+            this.averageWaitMillis = averageWaitMillis;
+            this.p99WaitMillis = p99WaitMillis;
+            this.maxWaitMillis = maxWaitMillis;
+            this.stops = stops;
+            this.travelFloors = travelFloors;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("[%d, %d) records=%d served=%d avgWait=%.1fs p99Wait=%.1fs maxWait=%.1fs"
+                            + " stops=%d floors=%d", startMillis, endMillis, records, callsServed,
+                    averageWaitMillis / 1000, p99WaitMillis / 1000d, maxWaitMillis / 1000d, stops, travelFloors);
+        }
+    }
+
+    /**
+     * KPI counters of one window or of the whole trace.
+     */
+    private static final class Counters {
+
+        long start;
+        long records;
+        long served;
+        long totalWait;
+        long maxWait;
+        long stops;
+        long travelFloors;
+        LiftMetrics.LatencyHistogram waits = new LiftMetrics.LatencyHistogram();
+
+        void reset(long start) {
+            this.start = start;
+            records = served = totalWait = maxWait = stops = travelFloors = 0;
+            waits = new LiftMetrics.LatencyHistogram();
+        }
+
+        void recordWait(long millis) {
+            served++;
+            totalWait += millis;
+            maxWait = Math.max(maxWait, millis);
+            waits.record(millis);
+        }
+
+        Window toWindow(long end) {
+            return new Window(start, end, records, served, served == 0 ? 0 : (double) totalWait / served,
+                    waits.percentile(0.99), maxWait, stops, travelFloors);
+        }
+    }
+
+    /**
+     * State of one replay.
+     */
+    private final class Run {
+
+        private final ReadableByteChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        private final Simulation.EventQueue events = new Simulation.EventQueue();
+        private final boolean[] idle;
+
+        /**
+         * 每层未处理的向上/向下呼叫的登记时刻，没有时为-1
+         */
+        private final long[] upSince;
+        private final long[] downSince;
+
+        private final Counters window = new Counters();
+        private final Counters total = new Counters();
+        private boolean started;
+        private long now;
+        private boolean eof;
+        private boolean binary;
+        private long line;
+
+        /**
+         * {@link #digits} 解析到的位置
+         */
+        private int cursor;
+
+        Run(ReadableByteChannel channel) {
+            this.channel = channel;
+            this.idle = new boolean[system.elevatorCount()];
+            this.upSince = new long[system.totalFloors()];
+            this.downSince = new long[system.totalFloors()];
+            Arrays.fill(idle, true);
+            Arrays.fill(upSince, -1);
+            Arrays.fill(downSince, -1);
+        }
+
+        Window run() throws IOException {
+            buffer.flip();
+            if (fill(HEADER_BYTES) && buffer.getLong(buffer.position()) == MAGIC) {
+                buffer.position(buffer.position() + HEADER_BYTES);
+                binary = true;
+                readBinary();
+            } else {
+                readCsv();
+            }
+            // 轨迹结束后继续推进到所有电梯闲置
+            while (!events.isEmpty()) {
+                stepCar();
+            }
+            if (started) {
+                emit(now);
+            }
+            return total.toWindow(now);
+        }
+
+        /**
+         * 保证缓冲区中至少有 n 个字节可读
+         *
+         * @return 到达结尾仍不足 n 个字节时返回false
+         */
+        private boolean fill(int n) throws IOException {
+            while (buffer.remaining() < n && !eof) {
+                buffer.compact();
+                eof = channel.read(buffer) < 0;
+                buffer.flip();
+            }
+            return buffer.remaining() >= n;
+        }
+
+        private void readBinary() throws IOException {
+            while (fill(RECORD_BYTES)) {
+                int p = buffer.position();
+                long timestamp = buffer.getLong(p);
+                long record = buffer.getLong(p + 8);
+                buffer.position(p + RECORD_BYTES);
+                line++;
+                int type = (int) (record >>> 56);
+                // 电梯编号按24位有符号数还原，-1 表示按键没有电梯
+                int car = (int) (record << 8 >> 40);
+                int floor = (int) record;
+                check(type, car, floor);
+                apply(timestamp, type, car, floor);
+            }
+            if (buffer.hasRemaining()) {
+                throw new IOException("truncated trace record " + (line + 1));
+            }
+        }
+
+        private void readCsv() throws IOException {
+            while (true) {
+                int end = lineEnd();
+                if (end < 0) {
+                    if (!buffer.hasRemaining()) {
+                        return;
+                    }
+                    // 最后一行没有换行符
+                    end = buffer.limit();
+                }
+                line++;
+                parseLine(buffer.position(), end);
+                buffer.position(Math.min(end + 1, buffer.limit()));
+            }
+        }
+
+        /**
+         * @return 下一行的换行符位置，必要时读入更多数据；到达结尾仍没有换行符时为-1
+         */
+        private int lineEnd() throws IOException {
+            int from = buffer.position();
+            while (true) {
+                for (int i = from; i < buffer.limit(); i++) {
+                    if (buffer.get(i) == '\n') {
+                        return i;
+                    }
+                }
+                if (eof) {
+                    return -1;
+                }
+                if (buffer.remaining() == buffer.capacity()) {
+                    throw new IOException("trace line " + (line + 1) + " is longer than " + BUFFER_BYTES + " bytes");
+                }
+                from = buffer.limit() - buffer.position();
+                fill(buffer.remaining() + 1);
+                from += buffer.position();
+            }
+        }
+
+        private void parseLine(int from, int end) throws IOException {
+            if (end > from && buffer.get(end - 1) == '\r') {
+                end--;
+            }
+            if (from == end || !isDigit(buffer.get(from))) {
+                return;
+            }
+            long timestamp = digits(from, end, Long.MAX_VALUE);
+            int p = expect(cursor, end, ',');
+            int field = p;
+            while (p < end && buffer.get(p) != ',') {
+                p++;
+            }
+            int type;
+            if (field < p && isDigit(buffer.get(field))) {
+                type = (int) digits(field, p, 0xff);
+                if (cursor != p) {
+                    throw malformed();
+                }
+            } else if (matches(field, p, "UP")) {
+                type = EventJournal.PRESS_UP;
+            } else if (matches(field, p, "DOWN")) {
+                type = EventJournal.PRESS_DOWN;
+            } else if (matches(field, p, "TARGET")) {
+                type = EventJournal.TARGET;
+            } else {
+                throw malformed();
+            }
+            p = expect(p, end, ',');
+            // 按键的电梯列可以为空或-1
+            int car = -1;
+            if (p < end && buffer.get(p) == '-') {
+                car = -(int) digits(p + 1, end, 1);
+                p = cursor;
+            } else if (p < end && buffer.get(p) != ',') {
+                car = (int) digits(p, end, Integer.MAX_VALUE);
+                p = cursor;
+            }
+            p = expect(p, end, ',');
+            int floor = (int) digits(p, end, Integer.MAX_VALUE);
+            if (cursor != end) {
+                throw malformed();
+            }
+            check(type, car, floor);
+            apply(timestamp, type, car, floor);
+        }
+
+        /**
+         * 解析从 p 开始的十进制数字，结束位置写入 {@link #cursor}
+         *
+         * @throws IOException 没有数字或数值超过 max
+         */
+        private long digits(int p, int end, long max) throws IOException {
+            if (p >= end || !isDigit(buffer.get(p))) {
+                throw malformed();
+            }
+            long value = 0;
+            for (; p < end && isDigit(buffer.get(p)); p++) {
+                int digit = buffer.get(p) - '0';
+                if (value > max / 10 || value * 10 > max - digit) {
+                    throw error("number out of range");
+                }
+                value = value * 10 + digit;
+            }
+            cursor = p;
+            return value;
+        }
+
+        private boolean matches(int from, int end, String word) {
+            if (end - from != word.length()) {
+                return false;
+            }
+            for (int i = 0; i < word.length(); i++) {
+                if (buffer.get(from + i) != word.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private int expect(int p, int end, char c) throws IOException {
+            if (p >= end || buffer.get(p) != c) {
+                throw malformed();
+            }
+            return p + 1;
+        }
+
+        /**
+         * 按键与目的楼层必须落在系统范围内；认领、到达等记录回放时被忽略，不检查
+         */
+        private void check(int type, int car, int floor) throws IOException {
+            if (type != EventJournal.PRESS_UP && type != EventJournal.PRESS_DOWN && type != EventJournal.TARGET) {
+                return;
+            }
+            if (floor < 0 || floor >= upSince.length) {
+                throw error("floor " + floor + " of " + upSince.length);
+            }
+            if (type == EventJournal.TARGET && (car < 0 || car >= idle.length)) {
+                throw error("no car " + car);
+            }
+        }
+
+        private IOException malformed() {
+            return error("malformed record");
+        }
+
+        private IOException error(String message) {
+            return new IOException((binary ? "record " : "line ") + line + ": " + message);
+        }
+
+        /**
+         * 先把电梯推进到记录的时刻，再把记录送入系统。楼层与电梯编号已由 {@link #check} 校验
+         */
+        private void apply(long timestamp, int type, int car, int floor) {
+            if (!started) {
+                started = true;
+                now = timestamp;
+                window.reset(timestamp);
+                total.reset(timestamp);
+            }
+            while (!events.isEmpty() && events.peekTime() <= timestamp) {
+                stepCar();
+            }
+            advance(Math.max(now, timestamp));
+            window.records++;
+            total.records++;
+            switch (type) {
+                case EventJournal.PRESS_UP:
+                    if (system.getFloorControlPanel(floor).pressUp()) {
+                        upSince[floor] = now;
+                        wakeAll();
+                    }
+                    break;
+                case EventJournal.PRESS_DOWN:
+                    if (system.getFloorControlPanel(floor).pressDown()) {
+                        downSince[floor] = now;
+                        wakeAll();
+                    }
+                    break;
+                case EventJournal.TARGET:
+                    if (system.getElevator(car).addTargetFloor(floor)) {
+                        wake(car);
+                    }
+                    break;
+                default:
+                    // 认领、到达等是调度的结果而不是输入，回放时由系统重新产生
+                    break;
+            }
+        }
+
+        private void stepCar() {
+            advance(events.peekTime());
+            int car = events.pop() >>> 1;
+            MyLift.Elevator elevator = system.getElevator(car);
+            int from = elevator.getCurrentFloor();
+            long at = elevator.goToNext(now);
+            int to = elevator.getCurrentFloor();
+            // 电梯只在驶向的楼层认领呼叫
+            served(to, at, upSince, system.getFloorControlPanel(to).isUpPressed());
+            served(to, at, downSince, system.getFloorControlPanel(to).isDownPressed());
+            if (to == from) {
+                idle[car] = true;
+                return;
+            }
+            int floors = Math.abs(to - from);
+            window.stops++;
+            window.travelFloors += floors;
+            total.stops++;
+            total.travelFloors += floors;
+            events.push(elevator.getReadyAt(), CAR_READY | car << 1);
+        }
+
+        private void served(int floor, long at, long[] since, boolean stillPressed) {
+            if (since[floor] >= 0 && !stillPressed) {
+                long wait = Math.max(0, at - since[floor]);
+                since[floor] = -1;
+                window.recordWait(wait);
+                total.recordWait(wait);
+            }
+        }
+
+        private void wakeAll() {
+            for (int c = 0; c < idle.length; c++) {
+                wake(c);
+            }
+        }
+
+        private void wake(int car) {
+            if (idle[car]) {
+                idle[car] = false;
+                events.push(now, CAR_READY | car << 1);
+            }
+        }
+
+        /**
+         * 推进轨迹时间，跨过窗口边界时输出已结束的窗口
+         */
+        private void advance(long time) {
+            while (time >= window.start + windowMillis) {
+                emit(window.start + windowMillis);
+                window.reset(window.start + windowMillis);
+            }
+            now = Math.max(now, time);
+        }
+
+        private void emit(long end) {
+            if (listener != null) {
+                listener.onWindow(window.toWindow(end));
+            }
+        }
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    /**
+     * Writes traces in the binary format, e.g. to convert CSV logs once for faster replays.
+     */
+    static final class Writer implements Closeable {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+        Writer(Path file) throws IOException {
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            buffer.putLong(MAGIC).putInt(RECORD_BYTES).putInt(0);
+        }
+
+        /**
+         * @param type {@link EventJournal} 的记录类型
+         */
+        void append(long timestampMillis, int type, int car, int floor) throws IOException {
+            if (buffer.remaining() < RECORD_BYTES) {
+                flush();
+            }
+            buffer.putLong(timestampMillis);
+            buffer.putLong((long) type << 56 | (long) (car & 0xff_ffff) << 32 | (floor & 0xffff_ffffL));
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.sebsastian.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author sebastiangetts
+ */
+class TraceReplayTest {
+
+    private static final long MINUTE = 60_000L;
+
+    @TempDir
+    Path dir;
+
+    private static MyLift.ElevatorSystem system() {
+        return MyLift.ElevatorSystem.builder(20, 3).motion(MotionModel.standard()).build();
+    }
+
+    @Test
+    void csv_trace_shall_drive_panels_and_cars() throws IOException {
+        Path trace = dir.resolve("trace.csv");
+        Files.write(trace, ("timestamp,type,car,floor\r\n"
+                + "# lobby rush\r\n"
+                + "1000,UP,,0\r\n"
+                + "1500,DOWN,-1,12\r\n"
+                + "2000,TARGET,0,9\r\n"
+                + "90000,2,,5").getBytes(StandardCharsets.US_ASCII));
+        List<TraceReplay.Window> windows = new ArrayList<>();
+
+        TraceReplay.Window total = new TraceReplay(system(), MINUTE, windows::add).replay(trace);
+
+        assertEquals(4, total.records);
+        assertEquals(3, total.callsServed);
+        assertEquals(1000, total.startMillis);
+        assertTrue(total.maxWaitMillis > 0);
+        assertTrue(total.stops >= 3);
+        assertEquals(2, windows.size());
+        assertEquals(1000, windows.get(0).startMillis);
+        assertEquals(61_000, windows.get(0).endMillis);
+        assertEquals(3, windows.get(0).records);
+        assertEquals(1, windows.get(1).records);
+        assertEquals(total.endMillis, windows.get(1).endMillis);
+    }
+
+    @Test
+    void binary_and_csv_traces_shall_replay_identically() throws IOException {
+        // 数百万字节的轨迹，覆盖跨缓冲区的行与记录
+        Path csv = dir.resolve("large.csv");
+        Path binary = dir.resolve("large.bin");
+        SplittableRandom random = new SplittableRandom(11);
+        int records = 0;
+        try (BufferedWriter writer = Files.newBufferedWriter(csv, StandardCharsets.US_ASCII);
+             TraceReplay.Writer out = new TraceReplay.Writer(binary)) {
+            writer.write("timestamp,type,car,floor\n");
+            long time = 0;
+            for (int i = 0; i < 150_000; i++) {
+                time += random.nextInt(20_000);
+                int floor = random.nextInt(20);
+                int type = floor == 0 ? EventJournal.PRESS_UP : floor == 19 || random.nextBoolean()
+                        ? EventJournal.PRESS_DOWN : random.nextBoolean() ? EventJournal.PRESS_UP : EventJournal.TARGET;
+                int car = type == EventJournal.TARGET ? random.nextInt(3) : -1;
+                writer.write(time + "," + (type == EventJournal.TARGET ? "TARGET" : type) + ","
+                        + (car < 0 ? "" : car) + "," + floor + "\n");
+                out.append(time, type, car, floor);
+                records++;
+            }
+        }
+        assertTrue(Files.size(csv) > 2 * TraceReplay.BUFFER_BYTES);
+        List<TraceReplay.Window> fromCsv = new ArrayList<>();
+        List<TraceReplay.Window> fromBinary = new ArrayList<>();
+
+        TraceReplay.Window csvTotal = new TraceReplay(system(), 3_600_000L, fromCsv::add).replay(csv);
+        TraceReplay.Window binaryTotal = new TraceReplay(system(), 3_600_000L, fromBinary::add).replay(binary);
+
+        assertEquals(records, csvTotal.records);
+        assertEquals(csvTotal.toString(), binaryTotal.toString());
+        assertEquals(fromCsv.size(), fromBinary.size());
+        long windowRecords = 0;
+        for (int i = 0; i < fromCsv.size(); i++) {
+            assertEquals(fromCsv.get(i).toString(), fromBinary.get(i).toString());
+            windowRecords += fromCsv.get(i).records;
+        }
+        assertEquals(records, windowRecords);
+    }
+
+    @Test
+    void malformed_csv_shall_report_its_line() throws IOException {
+        Path trace = dir.resolve("bad.csv");
+        Files.write(trace, "1000,UP,,0\n2000,SIDEWAYS,,3\n".getBytes(StandardCharsets.US_ASCII));
+
+        IOException e = assertThrows(IOException.class, () -> new TraceReplay(system(), MINUTE, null).replay(trace));
+        assertTrue(e.getMessage().contains("line 2"), e.getMessage());
+    }
+
+    @Test
+    void out_of_range_or_overflowing_csv_fields_shall_report_their_line() throws IOException {
+        String[][] cases = {
+                {"10,UP,,42", "line 2: floor 42 of 20"},
+                {"10,DOWN,,-3", "line 2: malformed record"},
+                {"10,TARGET,3,5", "line 2: no car 3"},
+                {"10,TARGET,,5", "line 2: no car -1"},
+                {"10,UPWARD,,5", "line 2: malformed record"},
+                {"10,1x,,5", "line 2: malformed record"},
+                {"10,300,,5", "line 2: number out of range"},
+                {"10,UP,-7,5", "line 2: number out of range"},
+                {"10,UP,,99999999999", "line 2: number out of range"},
+                {"99999999999999999999,UP,,3", "line 2: number out of range"},
+                {"10,UP,,3,", "line 2: malformed record"},
+        };
+        Path trace = dir.resolve("range.csv");
+        for (String[] c : cases) {
+            Files.write(trace, ("5,UP,,1\n" + c[0] + "\n").getBytes(StandardCharsets.US_ASCII));
+
+            IOException e = assertThrows(IOException.class,
+                    () -> new TraceReplay(system(), MINUTE, null).replay(trace), c[0]);
+            assertEquals(c[1], e.getMessage(), c[0]);
+        }
+    }
+
+    @Test
+    void out_of_range_binary_record_shall_report_its_index() throws IOException {
+        Path trace = dir.resolve("range.bin");
+        try (TraceReplay.Writer out = new TraceReplay.Writer(trace)) {
+            out.append(1000, EventJournal.PRESS_UP, -1, 2);
+            out.append(2000, EventJournal.TARGET, 3, 7);
+        }
+        IOException e = assertThrows(IOException.class, () -> new TraceReplay(system(), MINUTE, null).replay(trace));
+        assertEquals("record 2: no car 3", e.getMessage());
+
+        try (TraceReplay.Writer out = new TraceReplay.Writer(trace)) {
+            out.append(1000, EventJournal.PRESS_DOWN, -1, 20);
+        }
+        e = assertThrows(IOException.class, () -> new TraceReplay(system(), MINUTE, null).replay(trace));
+        assertEquals("record 1: floor 20 of 20", e.getMessage());
+    }
+
+    @Test
+    void truncated_binary_trace_shall_be_rejected() throws IOException {
+        Path trace = dir.resolve("cut.bin");
+        try (TraceReplay.Writer out = new TraceReplay.Writer(trace)) {
+            out.append(1000, EventJournal.PRESS_UP, 0, 2);
+            out.append(2000, EventJournal.PRESS_DOWN, 0, 7);
+        }
+        byte[] bytes = Files.readAllBytes(trace);
+        Files.write(trace, Arrays.copyOf(bytes, bytes.length - 3));
+
+        assertThrows(IOException.class, () -> new TraceReplay(system(), MINUTE, null).replay(trace));
+    }
+}
@@ -0,0 +1,195 @@
+package com.sebsastian.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A tower split into stacked zones joined by sky lobbies, each zone served by its own {@link MyLift.ElevatorSystem}.
+ * 每个分区有独立的呼叫分片、调度器和电梯组，使用从分区底层开始的本地楼层号，电梯不会扫描分区以外的楼层。
+ * 空中大堂同时属于相邻的两个分区：在那里按上行由上面的分区服务，按下行由下面的分区服务。
+ * 分区之间没有共享状态，可以交给 {@link ParallelStepper#step(List, int)} 各占一个核心推进。
+ *
+ * @author sebastiangetts
+ */
+final class ZonedElevatorSystem {
+
+    private final int totalFloors;
+    private final List<MyLift.ElevatorSystem> zones;
+
+    /**
+     * 第 i 个分区的最低楼层（全局楼层号），最后一项为最高楼层
+     */
+    private final int[] bounds;
+
+    /**
+     * 第 i 个分区第一台电梯的全局编号，最后一项为电梯总数
+     */
+    private final int[] firstCar;
+
+    /**
+     * @param totalFloors  总楼层数
+     * @param skyLobbies   升序排列的换乘楼层，相邻分区在这些楼层衔接
+     * @param carsPerZone  自下而上每个分区的电梯数，个数为 skyLobbies.length + 1
+     */
+    ZonedElevatorSystem(int totalFloors, int[] skyLobbies, int[] carsPerZone) {
+        if (carsPerZone.length != skyLobbies.length + 1) {
+            throw new IllegalArgumentException("need one car count per zone: " + (skyLobbies.length + 1));
+        }
+        this.totalFloors = totalFloors;
+        this.bounds = new int[skyLobbies.length + 2];
+        this.firstCar = new int[carsPerZone.length + 1];
+        bounds[bounds.length - 1] = totalFloors - 1;
+        for (int i = 0; i < skyLobbies.length; i++) {
+            if (skyLobbies[i] <= bounds[i] || skyLobbies[i] >= totalFloors - 1) {
+                throw new IllegalArgumentException("sky lobbies must be ascending inner floors: " + skyLobbies[i]);
+            }
+            bounds[i + 1] = skyLobbies[i];
+        }
+        List<MyLift.ElevatorSystem> zones = new ArrayList<>(carsPerZone.length);
+        for (int z = 0; z < carsPerZone.length; z++) {
+            zones.add(new MyLift.ElevatorSystem(bounds[z + 1] - bounds[z] + 1, carsPerZone[z]));
+            firstCar[z + 1] = firstCar[z] + carsPerZone[z];
+        }
+        this.zones = Collections.unmodifiableList(zones);
+    }
+
+    int totalFloors() {
+        return totalFloors;
+    }
+
+    int zoneCount() {
+        return zones.size();
+    }
+
+    /**
+     * @return 所有分区，可直接交给 {@link ParallelStepper#step(List, int)}
+     */
+    List<MyLift.ElevatorSystem> zones() {
+        return zones;
+    }
+
+    MyLift.ElevatorSystem zone(int zone) {
+        return zones.get(zone);
+    }
+
+    /**
+     * @return 分区最低楼层的全局楼层号，本地楼层号 = 全局楼层号 - 该值
+     */
+    int zoneBase(int zone) {
+        return bounds[zone];
+    }
+
+    int zoneTop(int zone) {
+        return bounds[zone + 1];
+    }
+
+    /**
+     * @return 服务该楼层向上呼叫的分区，最高层返回-1
+     */
+    int upZoneOf(int floor) {
+        if (floor < 0 || floor >= totalFloors - 1) {
+            return -1;
+        }
+        // 换乘楼层属于上面的分区
+        int z = 0;
+        while (floor >= bounds[z + 1]) {
+            z++;
+        }
+        return z;
+    }
+
+    /**
+     * @return 服务该楼层向下呼叫的分区，最低层返回-1
+     */
+    int downZoneOf(int floor) {
+        if (floor <= 0 || floor > totalFloors - 1) {
+            return -1;
+        }
+        // 换乘楼层属于下面的分区
+        int z = 0;
+        while (floor > bounds[z + 1]) {
+            z++;
+        }
+        return z;
+    }
+
+    boolean pressUp(int floor) {
+        int z = upZoneOf(floor);
+        return z >= 0 && zones.get(z).getFloorControlPanel(floor - bounds[z]).pressUp();
+    }
+
+    boolean pressDown(int floor) {
+        int z = downZoneOf(floor);
+        return z >= 0 && zones.get(z).getFloorControlPanel(floor - bounds[z]).pressDown();
+    }
+
+    boolean isUpPressed(int floor) {
+        int z = upZoneOf(floor);
+        return z >= 0 && zones.get(z).getFloorControlPanel(floor - bounds[z]).isUpPressed();
+    }
+
+    boolean isDownPressed(int floor) {
+        int z = downZoneOf(floor);
+        return z >= 0 && zones.get(z).getFloorControlPanel(floor - bounds[z]).isDownPressed();
+    }
+
+    int elevatorCount() {
+        return firstCar[firstCar.length - 1];
+    }
+
+    /**
+     * @return 全局编号的电梯所在的分区
+     */
+    int zoneOfCar(int car) {
+        if (car < 0 || car >= elevatorCount()) {
+            throw new IndexOutOfBoundsException("car " + car);
+        }
+        int z = 0;
+        while (car >= firstCar[z + 1]) {
+            z++;
+        }
+        return z;
+    }
+
+    MyLift.Elevator getElevator(int car) {
+        int z = zoneOfCar(car);
+        return zones.get(z).getElevator(car - firstCar[z]);
+    }
+
+    /**
+     * @return 电梯当前所在的全局楼层号
+     */
+    int getCurrentFloor(int car) {
+        int z = zoneOfCar(car);
+        return bounds[z] + zones.get(z).getElevator(car - firstCar[z]).getCurrentFloor();
+    }
+
+    /**
+     * 以全局楼层号添加目标楼层，超出电梯所在分区的楼层没有效果
+     */
+    boolean addTargetFloor(int car, int floor) {
+        int z = zoneOfCar(car);
+        MyLift.ElevatorSystem zone = zones.get(z);
+        if (floor < bounds[z] || floor > bounds[z + 1]) {
+            zone.getMetrics().recordRejectedTarget();
+            return false;
+        }
+        return zone.getElevator(car - firstCar[z]).addTargetFloor(floor - bounds[z]);
+    }
+
+    /**
+     * 各分区依次前进一步，分区之间互不影响
+     */
+    void step() {
+        for (MyLift.ElevatorSystem zone : zones) {
+            zone.step();
+        }
+    }
+
+    void step(int ticks) {
+        for (int t = 0; t < ticks; t++) {
+            step();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.sebsastian.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author sebastiangetts
+ */
+class ZonedElevatorSystemTest {
+
+    // 0-30 低区，30-60 中区，60-89 高区
+    private final ZonedElevatorSystem tower = new ZonedElevatorSystem(90, new int[]{30, 60}, new int[]{2, 3, 1});
+
+    @Test
+    void zones_shall_share_only_their_sky_lobbies() {
+        assertEquals(3, tower.zoneCount());
+        assertEquals(6, tower.elevatorCount());
+        assertEquals(31, tower.zone(0).totalFloors());
+        assertEquals(31, tower.zone(1).totalFloors());
+        assertEquals(30, tower.zone(2).totalFloors());
+        assertEquals(60, tower.zoneBase(2));
+        assertEquals(89, tower.zoneTop(2));
+    }
+
+    @Test
+    void sky_lobby_up_call_shall_go_to_upper_zone_and_down_call_to_lower_zone() {
+        assertTrue(tower.pressUp(30));
+        assertTrue(tower.pressDown(30));
+
+        assertTrue(tower.zone(1).getFloorControlPanel(0).isUpPressed());
+        assertTrue(tower.zone(0).getFloorControlPanel(30).isDownPressed());
+        assertFalse(tower.zone(0).getFloorControlPanel(30).isUpPressed());
+        assertFalse(tower.zone(1).getFloorControlPanel(0).isDownPressed());
+        assertTrue(tower.isUpPressed(30));
+        assertTrue(tower.isDownPressed(30));
+    }
+
+    @Test
+    void calls_outside_the_building_shall_be_rejected() {
+        assertFalse(tower.pressUp(89));
+        assertFalse(tower.pressDown(0));
+        assertFalse(tower.pressUp(-1));
+        assertFalse(tower.pressDown(90));
+    }
+
+    @Test
+    void car_shall_only_serve_its_own_zone() {
+        // 全局编号 2-4 是中区的电梯
+        assertEquals(1, tower.zoneOfCar(2));
+        assertEquals(30, tower.getCurrentFloor(2));
+        assertFalse(tower.addTargetFloor(2, 61));
+        assertFalse(tower.addTargetFloor(2, 29));
+        assertTrue(tower.addTargetFloor(2, 45));
+
+        tower.step();
+
+        assertEquals(45, tower.getCurrentFloor(2));
+        assertEquals(15, tower.getElevator(2).getCurrentFloor());
+    }
+
+    @Test
+    void hall_call_shall_be_served_by_a_car_of_its_zone() {
+        tower.pressDown(75);
+        tower.pressUp(10);
+
+        tower.step();
+
+        assertEquals(75, tower.getCurrentFloor(5));
+        assertFalse(tower.isDownPressed(75));
+        assertFalse(tower.isUpPressed(10));
+        assertTrue(tower.getCurrentFloor(0) == 10 || tower.getCurrentFloor(1) == 10);
+        for (int car = 2; car <= 4; car++) {
+            assertEquals(30, tower.getCurrentFloor(car));
+        }
+    }
+
+    @Test
+    void zones_shall_step_in_parallel() {
+        ZonedElevatorSystem sequential = new ZonedElevatorSystem(90, new int[]{30, 60}, new int[]{2, 3, 1});
+        for (ZonedElevatorSystem t : new ZonedElevatorSystem[]{tower, sequential}) {
+            t.pressDown(50);
+            t.pressUp(70);
+            t.addTargetFloor(0, 20);
+        }
+        ParallelStepper stepper = new ParallelStepper(3);
+        try {
+            stepper.step(tower.zones(), 3);
+        } finally {
+            stepper.shutdown();
+        }
+        sequential.step(3);
+
+        for (int car = 0; car < tower.elevatorCount(); car++) {
+            assertEquals(sequential.getCurrentFloor(car), tower.getCurrentFloor(car));
+        }
+    }
+
+    @Test
+    void sky_lobbies_shall_be_ascending_inner_floors() {
+        assertThrows(IllegalArgumentException.class, () -> new ZonedElevatorSystem(90, new int[]{60, 30}, new int[]{1, 1, 1}));
+        assertThrows(IllegalArgumentException.class, () -> new ZonedElevatorSystem(90, new int[]{89}, new int[]{1, 1}));
+        assertThrows(IllegalArgumentException.class, () -> new ZonedElevatorSystem(90, new int[]{30}, new int[]{1}));
+    }
+}